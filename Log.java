@@ -23,51 +23,120 @@ package org.rrlib.logging;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * This class should be used to output log messages
+ *
+ * The static methods determine the caller's domain from the calling class.
+ * This requires a (short) stack walk for every message whose level some
+ * enabled domain could output - even if the caller's own domain drops it.
+ * Only messages with a level above the max message level of all enabled
+ * domains are discarded without walking the stack.
+ * Hot code should therefore keep its domain in a constant, e.g.
+ * static final LogDomain DOMAIN = LogDomainRegistry.getDomainForClass(MyClass.class),
+ * and check DOMAIN.isLoggable(level) or DOMAIN.getLevelGuard(level) before
+ * calling DOMAIN.log(...) - which does not walk the stack for dropped messages.
  */
 public class Log {
 
+    /** Stack walker used to determine the caller of log methods (without materializing the whole stack trace) */
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    /** Name of this package - frames of classes in this package are skipped when looking for the caller */
+    private static final String LOGGING_PACKAGE_NAME = Log.class.getPackageName();
+
+    /** Function that returns the first stack frame outside of this package */
+    private static final Function<Stream<StackWalker.StackFrame>, StackWalker.StackFrame> FIRST_FOREIGN_FRAME =
+        frames -> frames.filter(frame -> !frame.getDeclaringClass().getPackageName().equals(LOGGING_PACKAGE_NAME)).findFirst().orElse(null);
+
     /**
      * Log message
      *
-     * TODO: This method looks at the stack trace in order to decide if log message
-     * should be printed. This is kind of expensive.
-     * We might need another more efficient method with more parameters.
+     * Messages with a level that no enabled domain can output are discarded
+     * immediately. Otherwise, the caller's domain is determined from the
+     * calling class (a short stack walk). The caller's stack frame is only
+     * looked up if that domain actually processes the message.
      *
      * @param level Log level
      * @param origin Object that log message originates from (can also be a string)
      * @param msg Log message
      */
     public static void log(LogLevel level, Object origin, Object msg) {
-        StackTraceElement callFrame = new Throwable().getStackTrace()[1];
-        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName(callFrame.getClassName().substring(0, callFrame.getClassName().lastIndexOf('.')));
-        domain.log(level, callFrame, origin, msg, 2);
+        if (level.ordinal() > LogDomainRegistry.maxMessageLevelBound) {
+            return;
+        }
+        log(STACK_WALKER.getCallerClass(), level, origin, msg);
     }
 
     /**
      * Log message
      *
-     * TODO: This method looks at the stack trace in order to decide if log message
-     * should be printed. This is kind of expensive.
-     * We might need another more efficient method with more parameters.
+     * Messages with a level that no enabled domain can output are discarded
+     * immediately. Otherwise, the caller's domain is determined from the
+     * calling class (a short stack walk). The caller's stack frame is only
+     * looked up if that domain actually processes the message.
      *
      * @param level Log level
      * @param msg Log message
      */
     public static void log(LogLevel level, Object msg) {
-        StackTraceElement callFrame = new Throwable().getStackTrace()[1];
-        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName(callFrame.getClassName().substring(0, callFrame.getClassName().lastIndexOf('.')));
-        domain.log(level, callFrame, callFrame.getClassName().substring(callFrame.getClassName().lastIndexOf('.') + 1), msg, 2);
+        if (level.ordinal() > LogDomainRegistry.maxMessageLevelBound) {
+            return;
+        }
+        LogDomainRegistry.CallerClassInfo callerInfo = LogDomainRegistry.getCallerClassInfo(STACK_WALKER.getCallerClass());
+        if (callerInfo.domain.acceptsMessage(level)) {
+            callerInfo.domain.logWithCallFrame(level, getCallFrame(), callerInfo.simpleName, msg);
+        }
+    }
+
+    /**
+     * Log message that is only created if it is actually output
+     *
+     * The supplier is called after the level checks and the rate limiter have passed.
+     * So expensive message construction is skipped for filtered messages.
+     *
+     * @param level Log level
+     * @param origin Object that log message originates from (can also be a string)
+     * @param msg Supplier of log message
+     */
+    public static void log(LogLevel level, Object origin, Supplier<?> msg) {
+        if (level.ordinal() > LogDomainRegistry.maxMessageLevelBound) {
+            return;
+        }
+        LogDomain domain = LogDomainRegistry.getDomainForClass(STACK_WALKER.getCallerClass());
+        if (domain.acceptsMessage(level)) {
+            domain.logWithCallFrame(level, getCallFrame(), origin, msg);
+        }
+    }
+
+    /**
+     * Log message that is only created if it is actually output
+     *
+     * The supplier is called after the level checks and the rate limiter have passed.
+     * So expensive message construction is skipped for filtered messages.
+     *
+     * @param level Log level
+     * @param msg Supplier of log message
+     */
+    public static void log(LogLevel level, Supplier<?> msg) {
+        if (level.ordinal() > LogDomainRegistry.maxMessageLevelBound) {
+            return;
+        }
+        LogDomainRegistry.CallerClassInfo callerInfo = LogDomainRegistry.getCallerClassInfo(STACK_WALKER.getCallerClass());
+        if (callerInfo.domain.acceptsMessage(level)) {
+            callerInfo.domain.logWithCallFrame(level, getCallFrame(), callerInfo.simpleName, msg);
+        }
     }
 
     /**
      * Log message
      *
-     * TODO: This method looks at the stack trace in order to decide if log message
-     * should be printed. This is kind of expensive.
-     * We might need another more efficient method with more parameters.
+     * Messages with a level that no enabled domain can output are discarded
+     * immediately. Otherwise, the exception is only formatted if the caller's
+     * domain processes the message.
      *
      * @param level Log level
      * @param origin Object that log message originates from (can also be a string)
@@ -75,28 +144,68 @@ public class Log {
      * @param e Additional exception (if only exception is to be printed, use first method in this class)
      */
     public static void log(LogLevel level, Object origin, Object msg, Exception e) {
+        if (level.ordinal() > LogDomainRegistry.maxMessageLevelBound) {
+            return;
+        }
+        LogDomain domain = LogDomainRegistry.getDomainForClass(STACK_WALKER.getCallerClass());
+        if (!domain.acceptsMessage(level)) {
+            return;
+        }
         StringWriter stringWriter = new StringWriter();
         PrintWriter printWriter = new PrintWriter(stringWriter);
         printWriter.append(msg.toString()).append(e.getMessage()).append(" ");
         e.printStackTrace(printWriter);
         printWriter.close();
-        log(level, origin, stringWriter);
+        domain.logWithCallFrame(level, getCallFrame(), origin, stringWriter);
     }
 
     /**
      * Get log stream
      *
-     * TODO: This method looks at the stack trace in order to decide if log message
-     * should be printed. This is kind of expensive.
-     * We might need another more efficient method with more parameters.
+     * The caller's domain is determined from the calling class - only the
+     * caller's frame is looked up, no complete stack trace is materialized.
      *
      * @param level Log level
      * @param origin Object that log message originates from (can also be a string)
      */
     public static LogStream getLogStream(LogLevel level, Object origin) {
-        StackTraceElement callFrame = new Throwable().getStackTrace()[1];
-        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName(callFrame.getClassName().substring(0, callFrame.getClassName().lastIndexOf('.')));
-        return domain.getLogStream(level, origin);
+        return LogDomainRegistry.getDomainForClass(STACK_WALKER.getCallerClass()).getLogStream(level, origin);
     }
 
+    /**
+     * Log message on behalf of the specified class
+     *
+     * @param callerClass Class that called the public log method
+     * @param level Log level
+     * @param origin Object that log message originates from (can also be a string)
+     * @param msg Log message
+     */
+    private static void log(Class<?> callerClass, LogLevel level, Object origin, Object msg) {
+        LogDomain domain = LogDomainRegistry.getDomainForClass(callerClass);
+        if (domain.acceptsMessage(level)) {
+            domain.logWithCallFrame(level, getCallFrame(), origin, msg);
+        }
+    }
+
+    /**
+     * Determines the call frame of the code that called into the logging library
+     *
+     * The stack is only walked up to the first frame of a class outside of
+     * this package - so no complete stack trace is materialized.
+     *
+     * @return Stack frame of caller
+     */
+    static StackWalker.StackFrame getCallFrame() {
+        return STACK_WALKER.walk(FIRST_FOREIGN_FRAME);
+    }
+
+    /**
+     * Determines the call frame with the specified index on the stack
+     *
+     * @param stackIndex Index of frame on the stack - relative to the method calling this one (0 is the calling method itself)
+     * @return Stack frame with specified index (null if stack is not deep enough)
+     */
+    static StackWalker.StackFrame getCallFrame(int stackIndex) {
+        return STACK_WALKER.walk(frames -> frames.skip(stackIndex + 1).findFirst().orElse(null));
+    }
 }
@@ -0,0 +1,247 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Renders binary log files (see LogBinaryWriter) as text
+ *
+ * Messages are rendered in the same layout as text output of the
+ * domains (without control sequences for colored output).
+ * Times in the local time format are rendered in the time zone
+ * of the decoding machine.
+ *
+ * Usage: java org.rrlib.logging.LogBinaryDecoder <binary log file> [<output file>]
+ *
+ * @author Max Reichardt
+ */
+public class LogBinaryDecoder {
+
+    /** Domain definition from file */
+    private static final class Domain {
+
+        /** Bitfield with flags (see LogDomainSnapshot) */
+        final int flags;
+
+        /** Format for printing time */
+        final LogTimeFormat timeFormat;
+
+        /** Encoded output of domain name and level for each level */
+        final byte[][] levelPrefixes = new byte[LogLevel.DIMENSION.ordinal()][];
+
+        Domain(String name, int flags, LogTimeFormat timeFormat) {
+            this.flags = flags;
+            this.timeFormat = timeFormat;
+            for (int i = 0; i < levelPrefixes.length; i++) {
+                levelPrefixes[i] = LogDomainSnapshot.encodeLevelPrefix(name, flags, LogLevel.values()[i]);
+            }
+        }
+    }
+
+    /** Call site definition from file (prefix output is precomputed) */
+    private static final class CallSite {
+
+        /** Encoded output of description and function */
+        final byte[] function;
+
+        /** Encoded output of location */
+        final byte[] location;
+
+        CallSite(String description, String function, String file, int line) {
+            this.function = LogBuffer.encode(description + "::" + function + "()");
+            this.location = LogBuffer.encode(" (" + file + ":" + line + ")");
+        }
+    }
+
+    /** Stream to read from */
+    private final InputStream in;
+
+    /** System.nanoTime() when logging started in process that wrote the file */
+    private long startNanos;
+
+    /** Domains by id */
+    private final ArrayList<Domain> domains = new ArrayList<Domain>();
+
+    /** Call sites by id */
+    private final HashMap<Integer, CallSite> callSites = new HashMap<Integer, CallSite>();
+
+    /** Timestamp of previous record for each time format */
+    private final long[] lastTimestamps = new long[LogTimeFormat.values().length];
+
+    /** Buffer that records are rendered into */
+    private final LogBuffer buffer = new LogBuffer(256);
+
+    /**
+     * @param in Stream to read binary log from
+     */
+    public LogBinaryDecoder(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Renders whole binary log as text
+     *
+     * A truncated last entry (e.g. if the process crashed) is ignored.
+     *
+     * @param out Stream to write text to
+     */
+    public void decode(OutputStream out) throws IOException {
+        byte[] magic = readBytes(LogBinaryWriter.MAGIC.length);
+        if (!Arrays.equals(magic, LogBinaryWriter.MAGIC)) {
+            throw new IOException("Not a binary log file");
+        }
+        int version = (int)readVarint();
+        if (version != LogBinaryWriter.VERSION) {
+            throw new IOException("Unsupported version of binary log file: " + version);
+        }
+        startNanos = unzigzag(readVarint());
+
+        try {
+            while (true) {
+                int entry = in.read();
+                if (entry < 0) {
+                    break;
+                }
+                switch (entry) {
+                case LogBinaryWriter.ENTRY_DOMAIN:
+                    int domainId = (int)readVarint();
+                    String name = readString();
+                    int flags = (int)readVarint();
+                    LogTimeFormat timeFormat = LogTimeFormat.values()[(int)readVarint()];
+                    while (domains.size() <= domainId) {
+                        domains.add(null);
+                    }
+                    domains.set(domainId, new Domain(name, flags, timeFormat));
+                    break;
+                case LogBinaryWriter.ENTRY_CALL_SITE:
+                    int callSiteId = (int)readVarint();
+                    String description = readString();
+                    String function = readString();
+                    String file = readString();
+                    callSites.put(callSiteId, new CallSite(description, function, file, (int)readVarint()));
+                    break;
+                case LogBinaryWriter.ENTRY_RECORD:
+                    decodeRecord();
+                    out.write(buffer.array(), 0, buffer.length());
+                    break;
+                default:
+                    throw new IOException("Invalid entry type in binary log file: " + entry);
+                }
+            }
+        } catch (EOFException e) {
+            // truncated last entry
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads record and renders it into buffer
+     */
+    private void decodeRecord() throws IOException {
+        Domain domain = domains.get((int)readVarint());
+        int level = (int)readVarint();
+        CallSite callSite = callSites.get((int)readVarint());
+        buffer.clear();
+        if ((domain.flags & LogDomainSnapshot.PRINT_TIME) != 0) {
+            int format = domain.timeFormat.ordinal();
+            long time = lastTimestamps[format] + unzigzag(readVarint());
+            lastTimestamps[format] = time;
+            domain.timeFormat.append(buffer, time, startNanos);
+            buffer.append(' ');
+        }
+        buffer.append(domain.levelPrefixes[level]);
+        buffer.append(callSite.function);
+        if ((domain.flags & LogDomainSnapshot.PRINT_LOCATION) != 0) {
+            buffer.append(callSite.location);
+        }
+        buffer.append(" >> ");
+        buffer.append(readBytes((int)readVarint()));
+    }
+
+    /**
+     * @return Next varint from stream
+     */
+    private long readVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            result |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Invalid varint in binary log file");
+    }
+
+    /**
+     * @param length Number of bytes to read
+     * @return Bytes read from stream
+     */
+    private byte[] readBytes(int length) throws IOException {
+        byte[] result = in.readNBytes(length);
+        if (result.length < length) {
+            throw new EOFException();
+        }
+        return result;
+    }
+
+    /**
+     * @return Next string from stream
+     */
+    private String readString() throws IOException {
+        return new String(readBytes((int)readVarint()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param value Number encoded with LogBinaryWriter.zigzag()
+     * @return Signed number
+     */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java org.rrlib.logging.LogBinaryDecoder <binary log file> [<output file>]");
+            System.exit(1);
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(args[0]), 65536);
+                OutputStream out = new BufferedOutputStream(args.length > 1 ? new FileOutputStream(args[1]) : System.out, 65536)) {
+            new LogBinaryDecoder(in).decode(out);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Writes messages of all domains with binary output to one file
+ * in a compact binary format
+ *
+ * Instead of rendering the message prefix for every message, domains
+ * (with their output settings) and call sites (description, function,
+ * file and line) are written to the file once and are referenced by id
+ * afterwards. Timestamps are stored as deltas. So a record mostly consists
+ * of the message text. LogBinaryDecoder renders such a file as text.
+ *
+ * File format (all numbers are varints - see LogBuffer.appendVarint()):
+ *
+ *   header:    MAGIC, VERSION, zigzag(LogTimeFormat.START_NANOS)
+ *   entries:   ENTRY_DOMAIN, id, name, flags, time format ordinal
+ *              ENTRY_CALL_SITE, id, description, function, file, line
+ *              ENTRY_RECORD, domain id, level ordinal, call site id, [zigzag(time delta)], message
+ *
+ * Strings and messages are stored as length followed by UTF-8 bytes.
+ * The time delta is only present if the domain prints time. It refers
+ * to the previous record with the same time format. The message includes
+ * the stack trace of an exception and the final line break.
+ *
+ * @author Max Reichardt
+ */
+final class LogBinaryWriter {
+
+    /** Start of every binary log file */
+    static final byte[] MAGIC = {'R', 'R', 'L', 'O', 'G', 'B', 'I', 'N'};
+
+    /** Version of file format */
+    static final int VERSION = 1;
+
+    /** Entry types */
+    static final int ENTRY_DOMAIN = 1, ENTRY_CALL_SITE = 2, ENTRY_RECORD = 3;
+
+    /** Extension of binary log file */
+    static final String FILE_EXTENSION = ".rrlog";
+
+    /** Maximum number of call sites whose ids are remembered (table is cleared when exceeded - e.g. if descriptions contain varying data) */
+    private static final int MAX_CALL_SITES = 65536;
+
+    /** Singleton instance (null if not opened yet) */
+    private static LogBinaryWriter instance;
+
+    /** File that encoded entries are written to */
+    private final LogFileSink file;
+
+    /** Buffer that entries are encoded into */
+    private final LogBuffer encoded = new LogBuffer(256);
+
+    /** Ids of domains (with output settings) that were written to file */
+    private final HashMap<Domain, Integer> domainIds = new HashMap<Domain, Integer>();
+
+    /** Domain instance for lookups (avoids allocation for known domains) */
+    private final Domain domainLookupKey = new Domain();
+
+    /** Ids of call sites that were written to file */
+    private final HashMap<CallSite, Integer> callSiteIds = new HashMap<CallSite, Integer>();
+
+    /** Call site instance for lookups (avoids allocation for known call sites) */
+    private final CallSite lookupKey = new CallSite();
+
+    /** Id of next call site */
+    private int nextCallSiteId;
+
+    /** Timestamp of previous record for each time format */
+    private final long[] lastTimestamps = new long[LogTimeFormat.values().length];
+
+    /** Domain with the output settings that are written to file (a new snapshot with the same settings gets the same id) */
+    private static final class Domain {
+
+        String name;
+        int flags, timeFormat;
+
+        void set(String name, int flags, int timeFormat) {
+            this.name = name;
+            this.flags = flags;
+            this.timeFormat = timeFormat;
+        }
+
+        @Override
+        public int hashCode() {
+            return (name.hashCode() * 31 + flags) * 31 + timeFormat;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            Domain other = (Domain)obj;
+            return flags == other.flags && timeFormat == other.timeFormat && name.equals(other.name);
+        }
+    }
+
+    /** Call site of message */
+    private static final class CallSite {
+
+        String description, function, file;
+        int line;
+
+        void set(String description, String function, String file, int line) {
+            this.description = description;
+            this.function = function;
+            this.file = file;
+            this.line = line;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((description.hashCode() * 31 + function.hashCode()) * 31 + (file != null ? file.hashCode() : 0)) * 31 + line;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            CallSite other = (CallSite)obj;
+            return line == other.line && description.equals(other.description) && function.equals(other.function) && (file == null ? other.file == null : file.equals(other.file));
+        }
+    }
+
+    /**
+     * Creates file and writes header
+     *
+     * @param fileName Name of file
+     */
+    private LogBinaryWriter(String fileName) throws IOException {
+        file = new LogFileSink(fileName, new LogDomainConfiguration(fileName));
+        encoded.append(MAGIC).appendVarint(VERSION).appendVarint(zigzag(LogTimeFormat.START_NANOS));
+        file.write(LogLevel.USER, encoded.array(), 0, encoded.length());
+    }
+
+    /**
+     * Get writer for binary log file - opens file on first call
+     *
+     * The file name is built from the registry's file name prefix.
+     *
+     * @return Writer - or null if file could not be opened
+     */
+    static synchronized LogBinaryWriter getInstance() {
+        if (instance == null) {
+            String fileNamePrefix = LogDomainRegistry.getInstance().getOutputFileNamePrefix();
+            if (fileNamePrefix == null || fileNamePrefix.length() == 0) {
+                System.err.println("RRLib Logging >> Prefix for file names not set. Can not use eMS_BINARY_FILE.");
+                return null;
+            }
+            String fileName = fileNamePrefix + FILE_EXTENSION;
+            try {
+                instance = new LogBinaryWriter(fileName);
+            } catch (Exception e) {
+                System.err.println("RRLib Logging >> Could not open file `" + fileName + "'!");
+                return null;
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Write message
+     *
+     * @param snapshot      Snapshot of configuration of domain
+     * @param level         The log level of the message
+     * @param time          The time when the message was logged (obtained from snapshot's time format)
+     * @param file          The file that contains the message
+     * @param line          The line that contains the message
+     * @param function      The name of the function that contains the message
+     * @param caller        Description of calling object or context
+     * @param message       Array containing encoded message (including stack trace and line break)
+     * @param offset        Offset of message in array
+     * @param length        Length of message in bytes
+     */
+    synchronized void write(LogDomainSnapshot snapshot, LogLevel level, long time, String file, int line, String function, String callerDescription, byte[] message, int offset, int length) {
+        encoded.clear();
+
+        domainLookupKey.set(snapshot.name, snapshot.flags, snapshot.timeFormat.ordinal());
+        Integer domainId = domainIds.get(domainLookupKey);
+        if (domainId == null) {
+            Domain domain = new Domain();
+            domain.set(snapshot.name, snapshot.flags, snapshot.timeFormat.ordinal());
+            domainId = domainIds.size();
+            domainIds.put(domain, domainId);
+            encoded.appendVarint(ENTRY_DOMAIN).appendVarint(domainId);
+            appendString(snapshot.name);
+            encoded.appendVarint(snapshot.flags).appendVarint(snapshot.timeFormat.ordinal());
+        }
+
+        lookupKey.set(callerDescription, function, file, line);
+        Integer callSiteId = callSiteIds.get(lookupKey);
+        if (callSiteId == null) {
+            if (callSiteIds.size() >= MAX_CALL_SITES) {
+                callSiteIds.clear();
+            }
+            CallSite callSite = new CallSite();
+            callSite.set(callerDescription, function, file, line);
+            callSiteId = nextCallSiteId++;
+            callSiteIds.put(callSite, callSiteId);
+            encoded.appendVarint(ENTRY_CALL_SITE).appendVarint(callSiteId);
+            appendString(callerDescription);
+            appendString(function);
+            appendString(file != null ? file : "null");
+            encoded.appendVarint(line);
+        }
+
+        encoded.appendVarint(ENTRY_RECORD).appendVarint(domainId).appendVarint(level.ordinal()).appendVarint(callSiteId);
+        if (snapshot.isSet(LogDomainSnapshot.PRINT_TIME)) {
+            int format = snapshot.timeFormat.ordinal();
+            encoded.appendVarint(zigzag(time - lastTimestamps[format]));
+            lastTimestamps[format] = time;
+        }
+        encoded.appendVarint(length).append(message, offset, length);
+        this.file.write(level, encoded.array(), 0, encoded.length());
+    }
+
+    /**
+     * Appends string with length
+     *
+     * @param s String to append
+     */
+    private void appendString(String s) {
+        byte[] bytes = LogBuffer.encode(s);
+        encoded.appendVarint(bytes.length).append(bytes);
+    }
+
+    /**
+     * @param value Signed number
+     * @return Number encoded so that values with small magnitude have small unsigned values
+     */
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
@@ -0,0 +1,224 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that log messages are rendered into
+ *
+ * Text is encoded as UTF-8 while it is appended - so that rendered
+ * messages can be written to output streams without further conversion.
+ * Instances are reused for many messages and are not thread-safe.
+ *
+ * @author Max Reichardt
+ */
+class LogBuffer {
+
+    /** Buffer content */
+    private byte[] data;
+
+    /** Number of valid bytes in buffer */
+    private int length;
+
+    LogBuffer(int initialCapacity) {
+        data = new byte[initialCapacity];
+    }
+
+    /**
+     * @return Array containing buffer content (valid up to length())
+     */
+    byte[] array() {
+        return data;
+    }
+
+    /**
+     * @return Number of valid bytes in buffer
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Clears buffer (keeps capacity)
+     */
+    void clear() {
+        length = 0;
+    }
+
+    /**
+     * Makes sure buffer can hold specified number of additional bytes
+     *
+     * @param additionalBytes Number of bytes to be appended
+     */
+    private void ensureCapacity(int additionalBytes) {
+        if (length + additionalBytes > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + additionalBytes));
+        }
+    }
+
+    LogBuffer append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    LogBuffer append(byte[] bytes, int offset, int len) {
+        ensureCapacity(len);
+        System.arraycopy(bytes, offset, data, length, len);
+        length += len;
+        return this;
+    }
+
+    LogBuffer append(LogBuffer other) {
+        return append(other.data, 0, other.length);
+    }
+
+    /**
+     * Appends ASCII character
+     *
+     * @param c Character (must be < 128)
+     */
+    LogBuffer append(char c) {
+        ensureCapacity(1);
+        data[length++] = (byte)c;
+        return this;
+    }
+
+    LogBuffer append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            data[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            data[length++] = (byte)('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte tmp = data[i];
+            data[i] = data[j];
+            data[j] = tmp;
+        }
+        return this;
+    }
+
+    /**
+     * Appends number in variable-length binary encoding
+     * (7 bits per byte, least significant group first - high bit is set if more bytes follow)
+     *
+     * @param value Number to append (interpreted as unsigned)
+     */
+    LogBuffer appendVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            data[length++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte)value;
+        return this;
+    }
+
+    /**
+     * Appends non-negative number with leading zeros
+     *
+     * @param value Number to append
+     * @param digits Number of digits to append
+     */
+    LogBuffer appendPadded(int value, int digits) {
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            data[i] = (byte)('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    LogBuffer append(CharSequence s) {
+        return append(s, 0, s.length());
+    }
+
+    /**
+     * Appends characters encoded as UTF-8
+     *
+     * @param s Character sequence
+     * @param start Index of first character to append
+     * @param end Index after last character to append
+     */
+    LogBuffer append(CharSequence s, int start, int end) {
+        ensureCapacity(end - start);
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (length == data.length) {
+                    ensureCapacity(end - i);
+                }
+                data[length++] = (byte)c;
+            } else {
+                ensureCapacity(4 + end - i);
+                if (c < 0x800) {
+                    data[length++] = (byte)(0xC0 | (c >> 6));
+                    data[length++] = (byte)(0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    data[length++] = (byte)(0xF0 | (codePoint >> 18));
+                    data[length++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                    data[length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                    data[length++] = (byte)(0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    data[length++] = '?';
+                } else {
+                    data[length++] = (byte)(0xE0 | (c >> 12));
+                    data[length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                    data[length++] = (byte)(0x80 | (c & 0x3F));
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Encodes string as UTF-8 byte array
+     *
+     * @param s String to encode
+     * @return Byte array
+     */
+    static byte[] encode(String s) {
+        return new LogBuffer(s.length()).append(s).toByteArray();
+    }
+
+    /**
+     * @return Copy of buffer content
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(data, 0, length, StandardCharsets.UTF_8);
+    }
+}
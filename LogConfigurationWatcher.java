@@ -0,0 +1,116 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Reloads configuration files when they are modified
+ *
+ * A single background thread watches the directories of all configuration
+ * files via a WatchService. As editors often save files in several steps
+ * (or by replacing them), changes are collected for a short time before a
+ * file is reloaded (see LogDomainRegistry.configureFromFile(String, boolean)).
+ *
+ * @author Max Reichardt
+ */
+class LogConfigurationWatcher implements Runnable {
+
+    /** Time to collect further changes before reloading (in ms) */
+    private static final long SETTLE_TIME = 200;
+
+    /** Watched configuration files (absolute paths) */
+    private static final Set<Path> watchedFiles = new CopyOnWriteArraySet<Path>();
+
+    /** Watch service (null if no file is watched yet) */
+    private static WatchService watchService;
+
+    /**
+     * Reload configuration file whenever it is modified
+     *
+     * @param file Configuration file
+     */
+    static synchronized void watch(Path file) throws IOException {
+        file = file.toAbsolutePath().normalize();
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread thread = new Thread(new LogConfigurationWatcher(), "RRLib Logging Configuration Watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedFiles.add(file);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Set<Path> changedFiles = new LinkedHashSet<Path>();
+                collectChanges(watchService.take(), changedFiles);
+                Thread.sleep(SETTLE_TIME);
+                for (WatchKey key = watchService.poll(); key != null; key = watchService.poll()) {
+                    collectChanges(key, changedFiles);
+                }
+                for (Path file : changedFiles) {
+                    LogDomainRegistry.getInstance().loadConfigurationFile(file.toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            // terminate
+        }
+    }
+
+    /**
+     * Adds watched files affected by the events of key to set
+     *
+     * @param key Signalled watch key
+     * @param changedFiles Set to add changed files to
+     */
+    private static void collectChanges(WatchKey key, Set<Path> changedFiles) {
+        Path directory = (Path)key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                for (Path file : watchedFiles) {
+                    if (file.getParent().equals(directory)) {
+                        changedFiles.add(file);
+                    }
+                }
+            } else {
+                Path file = directory.resolve((Path)event.context());
+                if (watchedFiles.contains(file)) {
+                    changedFiles.add(file);
+                }
+            }
+        }
+        key.reset();
+    }
+}
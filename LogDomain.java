@@ -21,14 +21,21 @@
 //----------------------------------------------------------------------
 package org.rrlib.logging;
 
-import java.io.BufferedOutputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
 import java.text.DateFormat;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
 
 /**
  * The RRLib logging system is structured into hierarchical domains that
@@ -50,26 +57,57 @@ import java.util.Set;
 public class LogDomain {
 
     LogDomain parent;
-    ArrayList<LogDomain> children = new ArrayList<LogDomain>();
 
-    private LogDomainConfiguration configuration;
+    /** Sub domains by local name (created concurrently via LogDomainRegistry.getSubDomain) */
+    final ConcurrentHashMap<String, LogDomain> children = new ConcurrentHashMap<String, LogDomain>();
 
-    //private PrintStream streamBuffer;
-    //private OutputStream stream;
-    class FileStream extends PrintStream {
-        public FileStream(String fileName) throws FileNotFoundException {
-            super(new BufferedOutputStream(new FileOutputStream(fileName)));
-        }
-    }
+    private volatile LogDomainConfiguration configuration;
+
+    /** Configuration of this domain in registry (used unless parent configures its subtree) */
+    private final LogDomainConfiguration ownConfiguration;
+
+    /** Sink for file output (opened on demand) */
+    private LogFileSink fileSink;
+
+    /** Sink for memory-mapped file output (opened on demand) */
+    private LogMappedFileSink mappedFileSink;
 
-    private FileStream fileStream;
+    /** Snapshot of effective configuration - replaced whenever configuration changes */
+    private volatile LogDomainSnapshot snapshot;
 
-    private int outputStreamsRevision = -1;
-    private ArrayList<PrintStream> outputStreams = new ArrayList<PrintStream>();
+    /**
+     * Call site that returns the snapshot's max message level as a constant.
+     * It is relinked whenever this value changes - so that the JIT compiler can
+     * treat it as a constant in between (see getLevelGuard).
+     */
+    private final MutableCallSite maxMessageLevelSite = new MutableCallSite(MethodHandles.constant(int.class, -1));
+
+    /** Method handle (int level, int maxLevel)boolean that checks whether level <= maxLevel */
+    private static final MethodHandle LEVEL_AT_MOST;
 
+    /** @deprecated Not used anymore (not thread-safe) - time is printed in the domain's LogTimeFormat */
+    @Deprecated
     public static final DateFormat format = DateFormat.getTimeInstance();
 
-    private StringBuilder buffer = new StringBuilder(); // temporary buffer for output string (only use with lock on domain)
+    /** Marker for write(): message is a supplier that is only called if message is actually output */
+    private static final Object[] SUPPLIED_MESSAGE = new Object[0];
+
+    private final LogBuffer buffer = new LogBuffer(256); // temporary buffer for output (only use with lock on domain)
+
+    /** Counters for every-Nth sampling (index is level's ordinal - see sample()) */
+    private final AtomicLongArray sampleCounters = new AtomicLongArray(LogLevel.DIMENSION.ordinal());
+
+    /** Temporary buffer for message text if repeated messages are coalesced (only use with lock on domain) */
+    private final LogBuffer messageBuffer = new LogBuffer(128);
+
+    /** Coalesces repeated messages (null if domain has not coalesced messages yet - only use with lock on domain) */
+    private LogMessageCoalescer coalescer;
+
+    /** Encoded control sequences to setup colored output for each level (see getControlStringForColoredOutput) */
+    private static final byte[][] COLOR_CONTROL_BYTES = new byte[LogLevel.DIMENSION.ordinal()][];
+
+    /** Encoded control sequence to reset colored output */
+    private static final byte[] COLOR_RESET_BYTES = LogBuffer.encode("\033[;0m");
 
     /** Use colored console output ? (we don't want during debugging in IDEs such as Eclipse or on Android devices) */
     private final static boolean COLORED_CONSOLE_OUTPUT;
@@ -82,6 +120,18 @@ public class LogDomain {
             } catch (Exception e) {}
         }
         COLORED_CONSOLE_OUTPUT = coloredOutput;
+
+        for (LogLevel level : LogLevel.values()) {
+            if (level != LogLevel.DIMENSION) {
+                COLOR_CONTROL_BYTES[level.ordinal()] = LogBuffer.encode(getControlStringForColoredOutput(level));
+            }
+        }
+
+        try {
+            LEVEL_AT_MOST = MethodHandles.lookup().findStatic(LogDomain.class, "isLevelAtMost", MethodType.methodType(boolean.class, int.class, int.class));
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
     }
 
     /** The ctor of a top level domain
@@ -93,38 +143,95 @@ public class LogDomain {
      */
     LogDomain(LogDomainConfiguration configuration) {
         this.configuration = configuration;
-        //streamBuffer = new PrintStream
+        this.ownConfiguration = configuration;
+        updateSnapshot();
     }
 
     /** The ctor for a new sub domain
      *
      * This ctor is to be called by the registry to create a new subdomain
-     * with a given configuration
+     * with a given configuration. The registry adds the domain to its
+     * parent's children.
      *
      * @param configuration   The configuration for the new domain
      * @param parent          The parent domain
      */
     LogDomain(LogDomainConfiguration configuration, LogDomain parent) {
-        this(configuration);
+        this.configuration = configuration;
+        this.ownConfiguration = configuration;
         this.parent = parent;
-        parent.children.add(this);
         configureSubTree();
+        if (snapshot == null) {
+            updateSnapshot();
+        }
     }
 
     /** Recursively configure the subtree that begins in this domain
      *
      * If the domain is configured by its parent, the configuration is
-     * copied and propagated to this domain's children
+     * copied and propagated to this domain's children. If the parent
+     * no longer configures its subtree, the domain returns to its own
+     * configuration.
      */
     void configureSubTree() {
-        if (parent != null && parent.configuration.configureSubTree) {
-            configuration = new LogDomainConfiguration(configuration.name, parent.configuration);
-            for (LogDomain ld : children) {
+        if (parent != null && (parent.configuration.configureSubTree || configuration != ownConfiguration)) {
+            configuration = parent.configuration.configureSubTree ? new LogDomainConfiguration(configuration.name, parent.configuration) : ownConfiguration;
+            updateSnapshot();
+            for (LogDomain ld : children.values()) {
                 ld.configureSubTree();
             }
         }
     }
 
+    /** Publish new snapshots for domains whose configuration was changed in a transaction
+     *
+     * Traverses the subtree once. Domains that are configured by a changed
+     * ancestor copy its configuration (or return to their own configuration
+     * - as in configureSubTree()).
+     * New snapshots are only created - so that the caller can publish all
+     * of them at once (see publishSnapshot()).
+     *
+     * @param changedNames   Names of domains whose configuration was changed
+     * @param visitedNames   Names of domains that need to be visited (changed domains and their ancestors)
+     * @param parentChanged  Has the effective configuration of the parent changed?
+     * @param changedDomains List that domains with new snapshots are added to
+     * @param newSnapshots   List that new snapshots are added to (same index as domain)
+     */
+    void applyConfigurationChanges(Set<String> changedNames, Set<String> visitedNames, boolean parentChanged, ArrayList<LogDomain> changedDomains, ArrayList<LogDomainSnapshot> newSnapshots) {
+        boolean changed = changedNames.contains(configuration.name);
+        if (parentChanged && (parent.configuration.configureSubTree || configuration != ownConfiguration)) {
+            configuration = parent.configuration.configureSubTree ? new LogDomainConfiguration(configuration.name, parent.configuration) : ownConfiguration;
+            changed = true;
+        }
+        if (changed) {
+            changedDomains.add(this);
+            newSnapshots.add(createSnapshot());
+        }
+        for (LogDomain ld : children.values()) {
+            if (changed || visitedNames.contains(ld.getName())) {
+                ld.applyConfigurationChanges(changedNames, visitedNames, changed, changedDomains, newSnapshots);
+            }
+        }
+    }
+
+    /** Get name of file for file output
+     *
+     * The name is build using a prefix and the full qualified domain name.
+     *
+     * @param extension   Extension of file (e.g. ".log")
+     *
+     * @return File name - or null if no prefix has been set
+     */
+    private String getOutputFileName(String extension) {
+        String fileNamePrefix = LogDomainRegistry.getInstance().getOutputFileNamePrefix();
+        if (fileNamePrefix == null || fileNamePrefix.length() == 0) {
+            System.err.println("RRLib Logging >> Prefix for file names not set. Can not use eMS_FILE.");
+            System.err.println("Consider calling tMessageDomainRegistry::GetInstance().SetOutputFileNamePrefix(basename(argv[0])) for example.");
+            return null;
+        }
+        return fileNamePrefix + getName() + extension;
+    }
+
     /** Open the file stream for file output
      *
      * This method creates a new file which name is build using a prefix
@@ -133,19 +240,17 @@ public class LogDomain {
      *
      * @return Whether the file stream could be opened or not
      */
-    private boolean openFileOutputStream() {
-        if (fileStream != null) {
+    private synchronized boolean openFileOutputStream() {
+        if (fileSink != null) {
+            fileSink.configure(configuration);
             return true;
         }
-        String fileNamePrefix = LogDomainRegistry.getInstance().getOutputFileNamePrefix();
-        if (fileNamePrefix.length() == 0) {
-            System.err.println("RRLib Logging >> Prefix for file names not set. Can not use eMS_FILE.");
-            System.err.println("Consider calling tMessageDomainRegistry::GetInstance().SetOutputFileNamePrefix(basename(argv[0])) for example.");
+        String fileName = getOutputFileName(".log");
+        if (fileName == null) {
             return false;
         }
-        String fileName = fileNamePrefix + getName() + ".log";
         try {
-            fileStream = new FileStream(fileName);
+            fileSink = new LogFileSink(fileName, configuration);
         } catch (Exception e) {
             System.err.println("RRLib Logging >> Could not open file `" + fileName + "'!");
             return false;
@@ -153,60 +258,103 @@ public class LogDomain {
         return true;
     }
 
-    /** Setup the output stream to be used in this domain
+    /** Open the memory-mapped file for file output
      *
-     * A domain can stream its input to stdout, stderr, an own file and/or its parent's file.
+     * This method creates a new file which name is build using a prefix
+     * and the full qualified domain name (with extension .mapped.log).
+     * If the file already exists, it will be truncated.
      *
-     *@param outputs   Streams to output to
+     * @return Whether the file could be opened or not
      */
-    private void setupOutputStream(/*LogStream... outputs*/)  {
-        if (outputStreamsRevision == configuration.streamMaskRevision) {
-            return;
+    private synchronized boolean openMappedFileOutputStream() {
+        if (mappedFileSink != null) {
+            return true;
         }
-
-        synchronized (configuration) {
-            outputStreams.clear();
-            Set<PrintStream> tmp = new HashSet<PrintStream>();
-            for (LogStreamOutput ls : configuration.streamMask) {
-                if (ls == LogStreamOutput.STDOUT) {
-                    tmp.add(System.out);
-                } else if (ls == LogStreamOutput.STDERR) {
-                    tmp.add(System.err);
-                } else if (ls == LogStreamOutput.FILE) {
-                    tmp.add(openFileOutputStream() ? fileStream : System.err);
-                } else if (ls == LogStreamOutput.COMBINED_FILE) {
-                    LogDomain domain = this;
-                    for (; domain.parent != null && domain.parent.configuration.configureSubTree; domain = domain.parent) {}
-                    tmp.add(domain.openFileOutputStream() ? fileStream : System.err);
-                }
-            }
-            outputStreams.addAll(tmp);
-            outputStreamsRevision = configuration.streamMaskRevision;
+        String fileName = getOutputFileName(".mapped.log");
+        if (fileName == null) {
+            return false;
         }
+        try {
+            mappedFileSink = new LogMappedFileSink(fileName);
+        } catch (Exception e) {
+            System.err.println("RRLib Logging >> Could not open file `" + fileName + "'!");
+            return false;
+        }
+        return true;
     }
 
-    /** Get the current time as string for internal use in messages
+    /** Publish snapshot of current configuration
      *
-     * This method formats the current time as string that can be used in
-     * messages.
+     * Resolves the sinks to be used in this domain and publishes
+     * them together with the other settings as a new immutable snapshot.
+     * A domain can stream its input to stdout, stderr, an own file and/or
+     * its parent's file.
      *
-     * @return The current time as string
+     * Must be called whenever the configuration of this domain changes.
      */
-    private String getTimeString() {
-        return format.format(System.currentTimeMillis());
+    synchronized void updateSnapshot() {
+        publishSnapshot(createSnapshot());
     }
 
-    /** Get the domain's name as string for internal use in messages
+    /** Create snapshot of current configuration
      *
-     * This method formats the name as string that can be used in
-     * messages. This string is padded with spaces to the length of the
-     * longest domain name
+     * Opens file outputs as required.
      *
-     * @return The padded name as string
+     * @return New snapshot
      */
-    private String getNameString() {
-        // TODO: maybe do this properly with padding
-        return configuration.name;
+    synchronized LogDomainSnapshot createSnapshot() {
+        Set<LogSink> sinks = new LinkedHashSet<LogSink>();
+        LogBinaryWriter binaryWriter = null;
+        LogFlightRecorder flightRecorder = null;
+        for (LogStreamOutput ls : configuration.streamMask) {
+            if (ls == LogStreamOutput.STDOUT) {
+                sinks.add(new LogSink.PrintStreamSink(System.out, COLORED_CONSOLE_OUTPUT));
+            } else if (ls == LogStreamOutput.STDERR) {
+                sinks.add(new LogSink.PrintStreamSink(System.err, COLORED_CONSOLE_OUTPUT));
+            } else if (ls == LogStreamOutput.FILE) {
+                sinks.add(openFileOutputStream() ? fileSink : new LogSink.PrintStreamSink(System.err, COLORED_CONSOLE_OUTPUT));
+            } else if (ls == LogStreamOutput.COMBINED_FILE) {
+                LogDomain domain = this;
+                for (; domain.parent != null && domain.parent.configuration.configureSubTree; domain = domain.parent) {}
+                sinks.add(domain.openFileOutputStream() ? domain.fileSink : new LogSink.PrintStreamSink(System.err, COLORED_CONSOLE_OUTPUT));
+            } else if (ls == LogStreamOutput.MAPPED_FILE) {
+                sinks.add(openMappedFileOutputStream() ? mappedFileSink : new LogSink.PrintStreamSink(System.err, COLORED_CONSOLE_OUTPUT));
+            } else if (ls == LogStreamOutput.FLIGHT_RECORDER) {
+                flightRecorder = LogFlightRecorder.getInstance();
+            } else if (ls == LogStreamOutput.BINARY_FILE) {
+                binaryWriter = LogBinaryWriter.getInstance();
+                if (binaryWriter == null) {
+                    sinks.add(new LogSink.PrintStreamSink(System.err, COLORED_CONSOLE_OUTPUT));
+                }
+            }
+        }
+        LogRateLimiter rateLimiter = null;
+        if (configuration.rateLimit > 0) {
+            rateLimiter = snapshot != null ? snapshot.rateLimiter : null;
+            if (rateLimiter == null || !rateLimiter.hasSettings(configuration.rateLimit, configuration.rateLimitBurst, configuration.rateLimitLevel, configuration.rateLimitPerCallSite)) {
+                rateLimiter = new LogRateLimiter(this, configuration.rateLimit, configuration.rateLimitBurst, configuration.rateLimitLevel, configuration.rateLimitPerCallSite);
+            }
+        }
+        return new LogDomainSnapshot(configuration, sinks.toArray(new LogSink[0]), binaryWriter, flightRecorder, rateLimiter);
+    }
+
+    /** Publish snapshot
+     *
+     * If the current snapshot has the same settings, it is kept - so that
+     * re-applying an unchanged configuration does not affect logging threads.
+     *
+     * @param newSnapshot Snapshot to publish
+     */
+    synchronized void publishSnapshot(LogDomainSnapshot newSnapshot) {
+        if (snapshot != null && snapshot.hasSameSettings(newSnapshot)) {
+            return;
+        }
+        boolean maxMessageLevelChanged = snapshot == null || snapshot.maxMessageLevel != newSnapshot.maxMessageLevel;
+        snapshot = newSnapshot;
+        if (maxMessageLevelChanged) {
+            maxMessageLevelSite.setTarget(MethodHandles.constant(int.class, newSnapshot.maxMessageLevel));
+            MutableCallSite.syncAll(new MutableCallSite[] {maxMessageLevelSite});
+        }
     }
 
     /** Get the given message level as string for internal use in messages
@@ -218,7 +366,7 @@ public class LogDomain {
      *
      * @return The given level as padded string
      */
-    private String getLevelString(LogLevel level) {
+    static String getLevelString(LogLevel level) {
         switch (level) {
         case ERROR:
             return "[error]   ";
@@ -233,20 +381,6 @@ public class LogDomain {
         }
     }
 
-    /** Get the given location as string for internal use in messages
-     *
-     * This method formats given location consisting of a file name and a
-     * line number as string that can be used in messages.
-     *
-     * @param file   The file name (e.g. from __FILE__)
-     * @param line   The line number (e.g. from __LINE__)
-     *
-     * @return The given location as string
-     */
-    private String getLocationString(String file, int line) {
-        return file + ":" + line;
-    }
-
     /** Get a string to setup colored output in a terminal
      *
      * This method creates a string that contains the control sequence to
@@ -256,7 +390,7 @@ public class LogDomain {
      *
      * @return The string containing the control sequence
      */
-    private String getControlStringForColoredOutput(LogLevel level) {
+    static String getControlStringForColoredOutput(LogLevel level) {
         switch (level) {
         case ERROR:
             return "\033[;1;31m";
@@ -300,7 +434,7 @@ public class LogDomain {
      * @return Whether the domain is enabled or not
      */
     boolean isEnabled() {
-        return configuration.enabled;
+        return snapshot.maxMessageLevel >= 0;
     }
 
     /** Get configuration status of this domain's print_time flag
@@ -311,7 +445,7 @@ public class LogDomain {
      * @return Whether the print_time flag is set or not.
      */
     boolean getPrintTime() {
-        return configuration.printTime;
+        return snapshot.isSet(LogDomainSnapshot.PRINT_TIME);
     }
 
     /** Get configuration status of this domain's print_name flag
@@ -322,7 +456,7 @@ public class LogDomain {
      * @return Whether the print_name flag is set or not.
      */
     boolean getPrintName() {
-        return configuration.printName;
+        return snapshot.isSet(LogDomainSnapshot.PRINT_NAME);
     }
 
     /** Get configuration status of this domain's print_level flag
@@ -333,7 +467,7 @@ public class LogDomain {
      * @return Whether the print_level flag is set or not.
      */
     boolean getPrintLevel() {
-        return configuration.printLevel;
+        return snapshot.isSet(LogDomainSnapshot.PRINT_LEVEL);
     }
 
     /** Get configuration status of this domain's print_location flag
@@ -344,17 +478,106 @@ public class LogDomain {
      * @return Whether the print_location flag is set or not.
      */
     boolean getPrintLocation() {
-        return configuration.printLocation;
+        return snapshot.isSet(LogDomainSnapshot.PRINT_LOCATION);
+    }
+
+    /** Check whether messages with the given level are processed by this domain
+     *
+     * A message is processed if the domain is enabled and its level is not
+     * above the configured max level.
+     * This can be used to guard expensive code that only prepares log output.
+     * It reads the domain's current snapshot on each call. In hot code, a
+     * guard from getLevelGuard is cheaper - as the JIT compiler can treat
+     * its result as a constant.
+     *
+     * @param level   The level of the message
+     *
+     * @return Whether a message with the given level would be processed
+     */
+    public boolean isLoggable(LogLevel level) {
+        return level.ordinal() <= snapshot.maxMessageLevel;
+    }
+
+    /** Check whether a message with the given level is to be processed - taking sampling into account
+     *
+     * Like isLoggable - but messages at sampled levels are only accepted
+     * according to the domain's sampling policy (see sample()). Must be
+     * called exactly once for every message - before the caller's stack
+     * frame is determined.
+     *
+     * @param level   The level of the message
+     *
+     * @return Whether message is to be processed
+     */
+    boolean acceptsMessage(LogLevel level) {
+        LogDomainSnapshot snapshot = this.snapshot;
+        return level.ordinal() <= snapshot.maxMessageLevel && (snapshot.sampleEveryNth == null || sample(snapshot, level));
+    }
+
+    /** Decide whether a message at a sampled level is kept
+     *
+     * Every-Nth sampling uses an atomic counter per domain and level - so
+     * exactly every Nth message is kept, also with concurrent logging
+     * threads. Probabilistic sampling uses the calling thread's
+     * ThreadLocalRandom.
+     *
+     * @param snapshot   Snapshot of configuration to use
+     * @param level      The level of the message
+     *
+     * @return True if message is kept
+     */
+    private boolean sample(LogDomainSnapshot snapshot, LogLevel level) {
+        int index = level.ordinal();
+        int everyNth = snapshot.sampleEveryNth[index];
+        if (everyNth > 1) {
+            if (sampleCounters.incrementAndGet(index) % everyNth != 0) {
+                return false;
+            }
+        }
+        double probability = snapshot.sampleProbability[index];
+        return probability >= 1 || ThreadLocalRandom.current().nextDouble() < probability;
     }
 
-    /** Get the minimal log level a message must have to be processed
+    /** Get a guard that checks whether messages with the given level are processed by this domain
+     *
+     * The returned method handle has type ()boolean. If it is stored in a
+     * static final field and invoked via invokeExact, the JIT compiler treats
+     * its result as a constant: code guarded by a disabled level is
+     * eliminated entirely. Whenever the domain's max level or enabled state
+     * changes, the call site behind the guard is relinked and dependent
+     * compiled code is deoptimized.
+     *
+     * <pre>
+     * static final MethodHandle VERBOSE = domain.getLevelGuard(LogLevel.DEBUG_VERBOSE_1);
+     * ...
+     * if ((boolean)VERBOSE.invokeExact()) { ... }
+     * </pre>
      *
-     * Each message has a log level that must not below the configured limit to be processed.
+     * @param level   The level of the messages to guard
      *
-     * @return The configured minimal log level
+     * @return Method handle that returns whether messages with the given level would be processed
      */
-    LogLevel getMaxMessageLevel() {
-        return configuration.maxMessageLevel;
+    public MethodHandle getLevelGuard(LogLevel level) {
+        return MethodHandles.filterReturnValue(maxMessageLevelSite.dynamicInvoker(), MethodHandles.insertArguments(LEVEL_AT_MOST, 0, level.ordinal()));
+    }
+
+    /**
+     * Target of LEVEL_AT_MOST method handle
+     */
+    @SuppressWarnings("unused")
+    private static boolean isLevelAtMost(int level, int maxLevel) {
+        return level <= maxLevel;
+    }
+
+    /** Get configuration status of this domain's async flag
+     *
+     * If the async flag is set, messages of this domain are formatted and
+     * written to its output streams by a separate writer thread.
+     *
+     * @return Whether the async flag is set or not.
+     */
+    boolean getAsyncOutput() {
+        return snapshot.isSet(LogDomainSnapshot.ASYNC_OUTPUT);
     }
 
     /** Get the mask representing which streams are used for message output
@@ -508,52 +731,524 @@ public class LogDomain {
      */
     public void log(LogLevel level, StackTraceElement callFrame, Object callerDescription, Object msg, int callerStackIndex) {
 
-        if (level.ordinal() > getMaxMessageLevel().ordinal() || !isEnabled()) {
+        LogDomainSnapshot snapshot = this.snapshot;
+        if (level.ordinal() > snapshot.maxMessageLevel || (snapshot.sampleEveryNth != null && !sample(snapshot, level))) {
             return;
         }
 
         // extract data from caller
         if (callFrame == null) {
-            callFrame = new Throwable().getStackTrace()[callerStackIndex];
+            StackWalker.StackFrame frame = Log.getCallFrame(callerStackIndex);
+            write(snapshot, level, frame.getFileName(), frame.getLineNumber(), frame.getMethodName(), callerDescription, msg, null);
+        } else {
+            write(snapshot, level, callFrame.getFileName(), callFrame.getLineNumber(), callFrame.getMethodName(), callerDescription, msg, null);
         }
-        String file = callFrame.getFileName();
-        int line = callFrame.getLineNumber();
-        String function = callFrame.getMethodName();
+    }
 
-        // produce string to output
-        synchronized (this) {
-            setupOutputStream();
-            buffer.delete(0, buffer.length());
-            if (getPrintTime()) {
-                buffer.append(getTimeString()).append(" ");
+    /** Variant of log method with a message that is only created if it is actually output
+     *
+     * The supplier is called after the level and enabled checks have passed.
+     *
+     * @param level         The log level of the message
+     * @param callFrame     Stack trace element of caller
+     * @param caller        Description of calling object or context
+     * @param msg           Supplier of the message to output
+     * @param callerStackIndex Stack index of caller (advanced feature)
+     */
+    public void log(LogLevel level, StackTraceElement callFrame, Object callerDescription, Supplier<?> msg, int callerStackIndex) {
+
+        LogDomainSnapshot snapshot = this.snapshot;
+        if (level.ordinal() > snapshot.maxMessageLevel || (snapshot.sampleEveryNth != null && !sample(snapshot, level))) {
+            return;
+        }
+
+        // extract data from caller
+        if (callFrame == null) {
+            StackWalker.StackFrame frame = Log.getCallFrame(callerStackIndex);
+            write(snapshot, level, frame.getFileName(), frame.getLineNumber(), frame.getMethodName(), callerDescription, msg, SUPPLIED_MESSAGE);
+        } else {
+            write(snapshot, level, callFrame.getFileName(), callFrame.getLineNumber(), callFrame.getMethodName(), callerDescription, msg, SUPPLIED_MESSAGE);
+        }
+    }
+
+    /** Variant of log method with a message that is only created if it is actually output
+     *
+     * The caller is determined by walking the stack up to the first frame
+     * outside of the logging library. The supplier is called after the level
+     * and enabled checks have passed.
+     *
+     * @param level         The log level of the message
+     * @param caller        Description of calling object or context
+     * @param msg           Supplier of the message to output
+     */
+    public void log(LogLevel level, Object callerDescription, Supplier<?> msg) {
+        LogDomainSnapshot snapshot = this.snapshot;
+        if (level.ordinal() > snapshot.maxMessageLevel || (snapshot.sampleEveryNth != null && !sample(snapshot, level))) {
+            return;
+        }
+        StackWalker.StackFrame frame = Log.getCallFrame();
+        write(snapshot, level, frame.getFileName(), frame.getLineNumber(), frame.getMethodName(), callerDescription, msg, SUPPLIED_MESSAGE);
+    }
+
+    /** Log message with placeholders that are only formatted if the message is actually output
+     *
+     * Each occurrence of "{}" in the pattern is replaced with the next
+     * argument. Formatting happens directly into this domain's output buffer
+     * after the level and enabled checks have passed. The caller is
+     * determined by walking the stack up to the first frame outside of the
+     * logging library.
+     * These methods are not named log(), as e.g. log(level, null, pattern, arg, 1)
+     * would call the variant with caller stack index instead.
+     *
+     * @param level         The log level of the message
+     * @param caller        Description of calling object or context
+     * @param pattern       Message pattern
+     * @param arg1          Argument for first placeholder
+     */
+    public void logPattern(LogLevel level, Object callerDescription, String pattern, Object arg1) {
+        LogDomainSnapshot snapshot = this.snapshot;
+        if (level.ordinal() > snapshot.maxMessageLevel || (snapshot.sampleEveryNth != null && !sample(snapshot, level))) {
+            return;
+        }
+        StackWalker.StackFrame frame = Log.getCallFrame();
+        write(snapshot, level, frame.getFileName(), frame.getLineNumber(), frame.getMethodName(), callerDescription, pattern, new Object[] {arg1});
+    }
+
+    /** Log message with placeholders that are only formatted if the message is actually output
+     *
+     * (see {@link #logPattern(LogLevel, Object, String, Object)})
+     *
+     * @param level         The log level of the message
+     * @param caller        Description of calling object or context
+     * @param pattern       Message pattern
+     * @param arg1          Argument for first placeholder
+     * @param arg2          Argument for second placeholder
+     */
+    public void logPattern(LogLevel level, Object callerDescription, String pattern, Object arg1, Object arg2) {
+        LogDomainSnapshot snapshot = this.snapshot;
+        if (level.ordinal() > snapshot.maxMessageLevel || (snapshot.sampleEveryNth != null && !sample(snapshot, level))) {
+            return;
+        }
+        StackWalker.StackFrame frame = Log.getCallFrame();
+        write(snapshot, level, frame.getFileName(), frame.getLineNumber(), frame.getMethodName(), callerDescription, pattern, new Object[] {arg1, arg2});
+    }
+
+    /** Log message with placeholders that are only formatted if the message is actually output
+     *
+     * (see {@link #logPattern(LogLevel, Object, String, Object)})
+     *
+     * @param level         The log level of the message
+     * @param caller        Description of calling object or context
+     * @param pattern       Message pattern
+     * @param arg1          Argument for first placeholder
+     * @param arg2          Argument for second placeholder
+     * @param arg3          Argument for third placeholder
+     */
+    public void logPattern(LogLevel level, Object callerDescription, String pattern, Object arg1, Object arg2, Object arg3) {
+        LogDomainSnapshot snapshot = this.snapshot;
+        if (level.ordinal() > snapshot.maxMessageLevel || (snapshot.sampleEveryNth != null && !sample(snapshot, level))) {
+            return;
+        }
+        StackWalker.StackFrame frame = Log.getCallFrame();
+        write(snapshot, level, frame.getFileName(), frame.getLineNumber(), frame.getMethodName(), callerDescription, pattern, new Object[] {arg1, arg2, arg3});
+    }
+
+    /** Log message with placeholders that are only formatted if the message is actually output
+     *
+     * (see {@link #logPattern(LogLevel, Object, String, Object)})
+     * The overloads with fixed number of arguments should be preferred in
+     * code that logs frequently, as they do not need to create an argument
+     * array if the message is filtered.
+     *
+     * @param level         The log level of the message
+     * @param caller        Description of calling object or context
+     * @param pattern       Message pattern
+     * @param args          Arguments for the placeholders
+     */
+    public void logPattern(LogLevel level, Object callerDescription, String pattern, Object... args) {
+        LogDomainSnapshot snapshot = this.snapshot;
+        if (level.ordinal() > snapshot.maxMessageLevel || (snapshot.sampleEveryNth != null && !sample(snapshot, level))) {
+            return;
+        }
+        StackWalker.StackFrame frame = Log.getCallFrame();
+        write(snapshot, level, frame.getFileName(), frame.getLineNumber(), frame.getMethodName(), callerDescription, pattern, args);
+    }
+
+    /** Variant of log method for callers that already determined the caller's stack frame
+     *
+     * Data is only extracted from the stack frame if the message is actually
+     * processed. Messages are not sampled - as callers have already done
+     * this (see acceptsMessage).
+     *
+     * @param level         The log level of the message
+     * @param callFrame     Stack frame of caller
+     * @param caller        Description of calling object or context
+     * @param msg           The message to output
+     */
+    void logWithCallFrame(LogLevel level, StackWalker.StackFrame callFrame, Object callerDescription, Object msg) {
+        LogDomainSnapshot snapshot = this.snapshot;
+        if (level.ordinal() > snapshot.maxMessageLevel) {
+            return;
+        }
+        write(snapshot, level, callFrame.getFileName(), callFrame.getLineNumber(), callFrame.getMethodName(), callerDescription, msg, null);
+    }
+
+    /** Variant of logWithCallFrame for messages that are only created if they are actually output
+     *
+     * The supplier is called after the level check and the rate limiter
+     * have passed.
+     *
+     * @param level         The log level of the message
+     * @param callFrame     Stack frame of caller
+     * @param caller        Description of calling object or context
+     * @param msg           Supplier of the message to output
+     */
+    void logWithCallFrame(LogLevel level, StackWalker.StackFrame callFrame, Object callerDescription, Supplier<?> msg) {
+        LogDomainSnapshot snapshot = this.snapshot;
+        if (level.ordinal() > snapshot.maxMessageLevel) {
+            return;
+        }
+        write(snapshot, level, callFrame.getFileName(), callFrame.getLineNumber(), callFrame.getMethodName(), callerDescription, msg, SUPPLIED_MESSAGE);
+    }
+
+    /** Format message and write it to this domain's output streams
+     *
+     * If the domain's rate limit is exceeded, the message is dropped
+     * before it is formatted.
+     *
+     * @param snapshot      Snapshot of configuration to use
+     * @param level         The log level of the message
+     * @param file          The file that contains the message
+     * @param line          The line that contains the message
+     * @param function      The name of the function that contains the message
+     * @param caller        Description of calling object or context
+     * @param msg           The message to output (message pattern if args is not null - supplier of message if args is SUPPLIED_MESSAGE)
+     * @param args          Arguments for the placeholders in message pattern (null if msg is not a pattern)
+     */
+    private void write(LogDomainSnapshot snapshot, LogLevel level, String file, int line, String function, Object callerDescription, Object msg, Object[] args) {
+        if (snapshot.rateLimiter != null && !snapshot.rateLimiter.acquire(level, file, line, function, callerDescription)) {
+            return;
+        }
+        if (args == SUPPLIED_MESSAGE) {
+            msg = ((Supplier<?>)msg).get();
+            args = null;
+        }
+        writeUnlimited(snapshot, level, file, line, function, callerDescription, msg, args);
+    }
+
+    /** Write message to this domain's output streams - regardless of rate limit
+     *
+     * Used by rate limiter to output summaries of dropped messages.
+     *
+     * @param level         The log level of the message
+     * @param file          The file that contains the message
+     * @param line          The line that contains the message
+     * @param function      The name of the function that contains the message
+     * @param caller        Description of calling object or context
+     * @param msg           The message to output
+     */
+    void writeUnlimited(LogLevel level, String file, int line, String function, Object callerDescription, String msg) {
+        LogDomainSnapshot snapshot = this.snapshot;
+        if (level.ordinal() <= snapshot.maxMessageLevel) {
+            writeUnlimited(snapshot, level, file, line, function, callerDescription, msg, null);
+        }
+    }
+
+    /** Format message and write it to this domain's output streams - regardless of rate limit
+     *
+     * (parameters as in write())
+     */
+    private void writeUnlimited(LogDomainSnapshot snapshot, LogLevel level, String file, int line, String function, Object callerDescription, Object msg, Object[] args) {
+
+        // asynchronous output: only format message - writer thread does the rest
+        if (snapshot.isSet(LogDomainSnapshot.ASYNC_OUTPUT)) {
+            LogRingBuffer ringBuffer = LogRingBuffer.getInstance();
+            LogRecord record = ringBuffer.isAccepting() ? ringBuffer.tryClaim() : null;
+            if (record != null) {
+                boolean filled = false;
+                try {
+                    record.snapshot = snapshot;
+                    record.level = level;
+                    record.timestamp = snapshot.isSet(LogDomainSnapshot.PRINT_TIME) ? snapshot.timeFormat.now() : 0;
+                    record.file = file;
+                    record.line = line;
+                    record.function = function;
+                    record.description = String.valueOf(callerDescription);
+                    record.exception = appendMessage(record.message, msg, args);
+                    filled = true;
+                } finally {
+                    // slot must always be published - otherwise writer thread waits for it forever
+                    record.domain = filled ? this : null;
+                    ringBuffer.publish(record);
+                }
+                return;
             }
+        }
 
-            if (getPrintName()) {
-                buffer.append("[").append(getNameString()).append("] ");
+        // produce output (also if asynchronous output is stalled or shut down)
+        synchronized (this) {
+            long time = snapshot.isSet(LogDomainSnapshot.PRINT_TIME) ? snapshot.timeFormat.now() : 0;
+            String description = String.valueOf(callerDescription);
+            if (snapshot.coalesceTimeout > 0 || coalescer != null) {
+                // message text is needed for comparison before output
+                messageBuffer.clear();
+                Throwable exception = appendMessage(messageBuffer, msg, args);
+                if (!coalesce(snapshot, level, file, line, function, description, messageBuffer, exception)) {
+                    outputMessage(snapshot, level, time, file, line, function, description, messageBuffer, exception);
+                }
+                return;
             }
-            if (getPrintLevel()) {
-                buffer.append(getLevelString(level)).append(" ");
+            buffer.clear();
+            appendPrefix(snapshot, level, time, file, line, function, description);
+            int messageStart = buffer.length();
+            Throwable exception = appendMessage(buffer, msg, args);
+            output(snapshot, level, exception);
+            outputBinary(snapshot, level, time, file, line, function, description, messageStart);
+        }
+    }
+
+    /** Format and output a record from the asynchronous ring buffer
+     *
+     * Called by the writer thread.
+     *
+     * @param record   The record to output
+     */
+    void writeRecord(LogRecord record) {
+        synchronized (this) {
+            if (coalesce(record.snapshot, record.level, record.file, record.line, record.function, record.description, record.message, record.exception)) {
+                return;
             }
-            buffer.append(callerDescription.toString()).append("::").append(function).append("()");
-            if (getPrintLocation()) {
-                buffer.append(" (").append(getLocationString(file, line)).append(")");
+            outputMessage(record.snapshot, record.level, record.timestamp, record.file, record.line, record.function, record.description, record.message, record.exception);
+        }
+    }
+
+    /** Output message that has already been formatted
+     *
+     * Only call with lock on domain
+     *
+     * @param snapshot      Snapshot of configuration to use
+     * @param level         The log level of the message
+     * @param time          The time when the message was logged (obtained from snapshot's time format)
+     * @param file          The file that contains the message
+     * @param line          The line that contains the message
+     * @param function      The name of the function that contains the message
+     * @param caller        Description of calling object or context
+     * @param message       Message text
+     * @param exception     Exception whose stack trace is to be printed after message (optional)
+     */
+    private void outputMessage(LogDomainSnapshot snapshot, LogLevel level, long time, String file, int line, String function, String callerDescription, LogBuffer message, Throwable exception) {
+        buffer.clear();
+        appendPrefix(snapshot, level, time, file, line, function, callerDescription);
+        int messageStart = buffer.length();
+        buffer.append(message);
+        output(snapshot, level, exception);
+        outputBinary(snapshot, level, time, file, line, function, callerDescription, messageStart);
+    }
+
+    /** Output line with current time - e.g. "last message repeated N times"
+     *
+     * Only call with lock on domain
+     *
+     * @param snapshot      Snapshot of configuration to use
+     * @param level         The log level of the line
+     * @param file          The file that the line refers to
+     * @param line          The line in file that the line refers to
+     * @param function      The name of the function that the line refers to
+     * @param caller        Description of calling object or context
+     * @param text          Text to output
+     */
+    void outputLine(LogDomainSnapshot snapshot, LogLevel level, String file, int line, String function, String callerDescription, String text) {
+        long time = snapshot.isSet(LogDomainSnapshot.PRINT_TIME) ? snapshot.timeFormat.now() : 0;
+        buffer.clear();
+        appendPrefix(snapshot, level, time, file, line, function, callerDescription);
+        int messageStart = buffer.length();
+        buffer.append(text);
+        output(snapshot, level, null);
+        outputBinary(snapshot, level, time, file, line, function, callerDescription, messageStart);
+    }
+
+    /** Coalesce message with previous one if it is a repetition (see LogMessageCoalescer)
+     *
+     * Only call with lock on domain
+     *
+     * @return True if message is a repetition (and must not be output)
+     */
+    private boolean coalesce(LogDomainSnapshot snapshot, LogLevel level, String file, int line, String function, String callerDescription, LogBuffer message, Throwable exception) {
+        if (snapshot.coalesceTimeout == 0) {
+            if (coalescer != null) {
+                coalescer.reportRepeated();
+                coalescer = null;
             }
-            buffer.append(" >> ").append(msg.toString());
+            return false;
+        }
+        if (coalescer == null) {
+            coalescer = new LogMessageCoalescer(this);
+        }
+        return coalescer.coalesce(snapshot, level, file, line, function, callerDescription, message, exception);
+    }
 
-            String nonColoredOutput = buffer.toString();
-            String coloredOutput = getControlStringForColoredOutput(level) + nonColoredOutput + "\033[;0m";
+    /**
+     * @return Time in ms after which repetitions of messages are reported (0 if repeated messages are not coalesced)
+     */
+    long getCoalesceTimeout() {
+        return snapshot.coalesceTimeout;
+    }
 
-            for (PrintStream ps : outputStreams) {
-                if (ps instanceof FileStream || (!COLORED_CONSOLE_OUTPUT)) {
-                    ps.println(nonColoredOutput);
+    /** Append everything in front of the message text to buffer
+     *
+     * The buffer always starts with the control sequence for colored output.
+     * So the colored and the plain variant of a message can be written from
+     * the same buffer (see output()). Name and level are copied from the
+     * snapshot's precomputed prefixes. Nothing is appended if the domain
+     * only uses binary output.
+     *
+     * Only call with lock on domain
+     *
+     * @param snapshot      Snapshot of configuration to use
+     * @param level         The log level of the message
+     * @param time          The time when the message was logged (obtained from snapshot's time format)
+     * @param file          The file that contains the message
+     * @param line          The line that contains the message
+     * @param function      The name of the function that contains the message
+     * @param caller        Description of calling object or context
+     */
+    private void appendPrefix(LogDomainSnapshot snapshot, LogLevel level, long time, String file, int line, String function, String callerDescription) {
+        if (snapshot.sinks.length == 0 && snapshot.flightRecorder == null) {
+            return;
+        }
+        buffer.append(COLOR_CONTROL_BYTES[level.ordinal()]);
+        if (snapshot.isSet(LogDomainSnapshot.PRINT_TIME)) {
+            snapshot.timeFormat.append(buffer, time);
+            buffer.append(' ');
+        }
+        buffer.append(snapshot.levelPrefixes[level.ordinal()]);
+        buffer.append(callerDescription).append("::").append(function).append("()");
+        if (snapshot.isSet(LogDomainSnapshot.PRINT_LOCATION)) {
+            buffer.append(" (").append(file != null ? file : "null").append(':').append(line).append(')');
+        }
+        buffer.append(" >> ");
+    }
+
+    /** Write content of buffer to all sinks
+     *
+     * Completes the buffer with line break, stack trace of exception and
+     * control sequence that resets colored output. Sinks with colored output
+     * get the whole buffer - all others get it without control sequences.
+     * The flight recorder may record messages with levels that are not
+     * written to the other sinks.
+     *
+     * Only call with lock on domain
+     *
+     * @param snapshot    Snapshot of configuration to use
+     * @param level       The log level of the message
+     * @param exception   Exception whose stack trace is to be printed after message (optional)
+     */
+    private void output(LogDomainSnapshot snapshot, LogLevel level, Throwable exception) {
+        buffer.append('\n');
+        if (exception != null) {
+            StringWriter stackTrace = new StringWriter();
+            exception.printStackTrace(new PrintWriter(stackTrace));
+            buffer.append(stackTrace.getBuffer());
+        }
+        buffer.append(COLOR_RESET_BYTES);
+        int plainStart = COLOR_CONTROL_BYTES[level.ordinal()].length;
+        int plainLength = buffer.length() - COLOR_RESET_BYTES.length - plainStart;
+
+        if (level.ordinal() <= snapshot.sinkMaxMessageLevel) {
+            for (LogSink sink : snapshot.sinks) {
+                if (sink.isColored()) {
+                    sink.write(level, buffer.array(), 0, buffer.length());
                 } else {
-                    ps.println(coloredOutput);
-                }
-                if (msg instanceof Exception) {
-                    ((Exception)msg).printStackTrace(ps);
+                    sink.write(level, buffer.array(), plainStart, plainLength);
                 }
             }
         }
+        if (snapshot.flightRecorder != null && level.ordinal() <= snapshot.flightRecorderMaxMessageLevel) {
+            snapshot.flightRecorder.write(level, buffer.array(), plainStart, plainLength);
+        }
+    }
+
+    /** Write message in buffer to binary output (if domain uses binary output)
+     *
+     * Only call with lock on domain - after output()
+     *
+     * @param snapshot      Snapshot of configuration to use
+     * @param level         The log level of the message
+     * @param time          The time when the message was logged (obtained from snapshot's time format)
+     * @param file          The file that contains the message
+     * @param line          The line that contains the message
+     * @param function      The name of the function that contains the message
+     * @param caller        Description of calling object or context
+     * @param messageStart  Position of message text in buffer
+     */
+    private void outputBinary(LogDomainSnapshot snapshot, LogLevel level, long time, String file, int line, String function, String callerDescription, int messageStart) {
+        if (snapshot.binaryWriter != null && level.ordinal() <= snapshot.sinkMaxMessageLevel) {
+            snapshot.binaryWriter.write(snapshot, level, time, file, line, function, callerDescription, buffer.array(), messageStart, buffer.length() - COLOR_RESET_BYTES.length - messageStart);
+        }
+    }
+
+    /** Append message text to buffer
+     *
+     * @param buffer   Buffer to append message to
+     * @param msg      The message to output (message pattern if args is not null)
+     * @param args     Arguments for the placeholders in message pattern (null if msg is not a pattern)
+     *
+     * @return Exception whose stack trace is to be printed after message (null if there is none)
+     */
+    private static Throwable appendMessage(LogBuffer buffer, Object msg, Object[] args) {
+        if (args != null) {
+            return appendFormatted(buffer, msg.toString(), args);
+        }
+        appendArgument(buffer, msg);
+        return (msg instanceof Exception) ? (Exception)msg : null;
+    }
+
+    /** Append message formatted from pattern and arguments to buffer
+     *
+     * Each occurrence of "{}" in the pattern is replaced with the next
+     * argument. Surplus placeholders are output as they are. A surplus
+     * trailing argument that is a Throwable is not output in the message -
+     * it is returned instead so that its stack trace can be printed.
+     *
+     * @param buffer    Buffer to append formatted message to
+     * @param pattern   Message pattern
+     * @param args      Arguments for the placeholders
+     *
+     * @return Trailing Throwable argument without placeholder (null if there is none)
+     */
+    static Throwable appendFormatted(LogBuffer buffer, String pattern, Object[] args) {
+        int argIndex = 0;
+        int start = 0;
+        for (int placeholder = pattern.indexOf("{}"); placeholder >= 0 && argIndex < args.length; placeholder = pattern.indexOf("{}", start)) {
+            buffer.append(pattern, start, placeholder);
+            appendArgument(buffer, args[argIndex]);
+            argIndex++;
+            start = placeholder + 2;
+        }
+        buffer.append(pattern, start, pattern.length());
+        if (argIndex < args.length && args[args.length - 1] instanceof Throwable) {
+            return (Throwable)args[args.length - 1];
+        }
+        return null;
+    }
+
+    /** Append message or message argument to buffer
+     *
+     * Avoids creating temporary strings for common argument types.
+     *
+     * @param buffer     Buffer to append argument to
+     * @param argument   Argument to append
+     */
+    private static void appendArgument(LogBuffer buffer, Object argument) {
+        if (argument instanceof CharSequence) {
+            buffer.append((CharSequence)argument);
+        } else if (argument instanceof Integer) {
+            buffer.append(((Integer)argument).intValue());
+        } else if (argument instanceof Long) {
+            buffer.append(((Long)argument).longValue());
+        } else {
+            buffer.append(String.valueOf(argument));
+        }
     }
 
     /**
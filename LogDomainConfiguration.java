@@ -22,8 +22,6 @@
 
 package org.rrlib.logging;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 /**
  * tLoggingDomainConfiguration encapsulates the configuration of logging
  * domains in the RRLib logging facility. It therefore stores settings
@@ -46,9 +44,57 @@ public class LogDomainConfiguration {
     final boolean DEFAULT_PRINT_NAME = false;              //!< Default print name setting for reduced output mode
     final boolean DEFAULT_PRINT_LEVEL = false;             //!< Default print level setting for reduced output mode
     final boolean DEFAULT_PRINT_LOCATION = true;          //!< Default print location setting for reduced output mode
+    final boolean DEFAULT_ASYNC_OUTPUT = false;           //!< Default setting for asynchronous output
+    final LogTimeFormat DEFAULT_TIME_FORMAT = LogTimeFormat.TIME; //!< Default format for printing time
+    final int DEFAULT_FILE_BUFFER_SIZE = 65536;           //!< Default size of buffer for file output (in bytes)
+    final int DEFAULT_FILE_FLUSH_RECORDS = 0;             //!< Default number of records after which file output is flushed (0 = when buffer is full)
+    final long DEFAULT_FILE_FLUSH_INTERVAL = 0;           //!< Default time in ms after which buffered file output is flushed (0 = only when buffer is full)
+    final LogLevel DEFAULT_FILE_FLUSH_LEVEL = null;       //!< Default level up to which messages are flushed to file immediately (null = none)
+    final long DEFAULT_FILE_SYNC_LATENCY = 0;             //!< Default time in ms after which file output is forced to disk (0 = never)
+    final long DEFAULT_ROLLOVER_SIZE = 0;                 //!< Default size in bytes at which log files are rolled over (0 = no limit)
+    final long DEFAULT_ROLLOVER_INTERVAL = 0;             //!< Default interval in ms in which log files are rolled over (0 = never)
+    final int DEFAULT_ROLLOVER_RETENTION = 10;            //!< Default number of compressed log file segments to keep (0 = no limit)
+    final long DEFAULT_ROLLOVER_MAX_AGE = 0;              //!< Default maximum age in ms of compressed log file segments (0 = no limit)
+    final double DEFAULT_RATE_LIMIT = 0;                  //!< Default maximum number of messages per second (0 = no limit)
+    final int DEFAULT_RATE_LIMIT_BURST = 0;               //!< Default number of messages that may exceed rate limit at once (0 = as many as in one second)
+    final LogLevel DEFAULT_RATE_LIMIT_LEVEL = LogLevel.WARNING; //!< Default most severe level that is rate-limited
+    final boolean DEFAULT_RATE_LIMIT_PER_CALL_SITE = true; //!< Default setting whether rate is limited per call site (or per domain)
+    final LogLevel DEFAULT_FLIGHT_RECORDER_LEVEL = null;  //!< Default level up to which messages are recorded by flight recorder (null = max level)
+    final long DEFAULT_COALESCE_TIMEOUT = 0;              //!< Default time in ms after which repetitions of coalesced messages are reported (0 = no coalescing)
+
+    /** Bits for settings in configuredSettings (rollover retention includes max. age) */
+    static final int CONFIGURES_SUB_TREE = 1 << 0;
+    static final int ENABLED = 1 << 1;
+    static final int PRINT_TIME = 1 << 2;
+    static final int PRINT_NAME = 1 << 3;
+    static final int PRINT_LEVEL = 1 << 4;
+    static final int PRINT_LOCATION = 1 << 5;
+    static final int ASYNC_OUTPUT = 1 << 6;
+    static final int TIME_FORMAT = 1 << 7;
+    static final int FILE_BUFFER_SIZE = 1 << 8;
+    static final int FILE_FLUSH_RECORDS = 1 << 9;
+    static final int FILE_FLUSH_INTERVAL = 1 << 10;
+    static final int FILE_FLUSH_LEVEL = 1 << 11;
+    static final int FILE_SYNC_LATENCY = 1 << 12;
+    static final int ROLLOVER_SIZE = 1 << 13;
+    static final int ROLLOVER_INTERVAL = 1 << 14;
+    static final int ROLLOVER_RETENTION = 1 << 15;
+    static final int MAX_MESSAGE_LEVEL = 1 << 16;
+    static final int STREAM_MASK = 1 << 17;
+    static final int RATE_LIMIT = 1 << 18;
+    static final int RATE_LIMIT_LEVEL = 1 << 19;
+    static final int RATE_LIMIT_PER_CALL_SITE = 1 << 20;
+    static final int COALESCE_TIMEOUT = 1 << 21;
+    static final int SAMPLING = 1 << 22;
+    static final int FLIGHT_RECORDER_LEVEL = 1 << 23;
+    static final int ALL_SETTINGS = (1 << 24) - 1;
 
 
     String name;
+
+    /** Settings that were set explicitly for this domain - or that are set by this rule (see LogDomainRegistry) */
+    int configuredSettings;
+
     boolean configureSubTree;
 
     boolean enabled = true;
@@ -56,11 +102,34 @@ public class LogDomainConfiguration {
     boolean printName = DEFAULT_PRINT_NAME;
     boolean printLevel = DEFAULT_PRINT_LEVEL;
     boolean printLocation = DEFAULT_PRINT_LOCATION;
+    boolean asyncOutput = DEFAULT_ASYNC_OUTPUT;
+    LogTimeFormat timeFormat = DEFAULT_TIME_FORMAT;
+    int fileBufferSize = DEFAULT_FILE_BUFFER_SIZE;
+    int fileFlushRecords = DEFAULT_FILE_FLUSH_RECORDS;
+    long fileFlushInterval = DEFAULT_FILE_FLUSH_INTERVAL;
+    LogLevel fileFlushLevel = DEFAULT_FILE_FLUSH_LEVEL;
+    long fileSyncLatency = DEFAULT_FILE_SYNC_LATENCY;
+    long rolloverSize = DEFAULT_ROLLOVER_SIZE;
+    long rolloverInterval = DEFAULT_ROLLOVER_INTERVAL;
+    int rolloverRetention = DEFAULT_ROLLOVER_RETENTION;
+    long rolloverMaxAge = DEFAULT_ROLLOVER_MAX_AGE;
     LogLevel maxMessageLevel = DEFAULT_MAX_LOG_LEVEL;
     LogStreamOutput[] streamMask = new LogStreamOutput[] {LogStreamOutput.STDOUT};
+    double rateLimit = DEFAULT_RATE_LIMIT;
+    int rateLimitBurst = DEFAULT_RATE_LIMIT_BURST;
+    LogLevel rateLimitLevel = DEFAULT_RATE_LIMIT_LEVEL;
+    boolean rateLimitPerCallSite = DEFAULT_RATE_LIMIT_PER_CALL_SITE;
+    long coalesceTimeout = DEFAULT_COALESCE_TIMEOUT;
+    LogLevel flightRecorderLevel = DEFAULT_FLIGHT_RECORDER_LEVEL;
+
+    /** Keep only every Nth message of each level (index is level's ordinal - null if no level is sampled this way) - arrays are replaced, not modified */
+    int[] sampleEveryNth;
 
-    final static AtomicInteger streamMaskRevisionGen = new AtomicInteger(0);
-    volatile int streamMaskRevision = streamMaskRevisionGen.incrementAndGet();
+    /** Keep messages of each level only with this probability (index is level's ordinal - null if no level is sampled this way) - arrays are replaced, not modified */
+    double[] sampleProbability;
+
+    /** Level (ordinal) this configuration is counted with in the registry's upper bound of max message levels (-1 if not counted) - not copied with the other settings */
+    int boundLevel = -1;
 
     LogDomainConfiguration(String name) {
         this.name = name;
@@ -68,15 +137,101 @@ public class LogDomainConfiguration {
 
     LogDomainConfiguration(String name, LogDomainConfiguration other) {
         this.name = name;
-        configureSubTree = other.configureSubTree;
-        enabled = other.enabled;
-        printTime = other.printTime;
-        printName = other.printName;
-        printLevel = other.printLevel;
-        printLocation = other.printLocation;
-        maxMessageLevel = other.maxMessageLevel;
-        streamMask = other.streamMask;
-        //name = other.name;
+        assign(other);
+    }
+
+    /**
+     * Copies all settings (except name) from other configuration
+     *
+     * @param other Configuration to copy settings from
+     */
+    void assign(LogDomainConfiguration other) {
+        configuredSettings = other.configuredSettings;
+        assign(other, ALL_SETTINGS);
+    }
+
+    /**
+     * Copies selected settings from other configuration
+     *
+     * @param other    Configuration to copy settings from
+     * @param settings Settings to copy (bit mask - see constants above)
+     */
+    void assign(LogDomainConfiguration other, int settings) {
+        if ((settings & CONFIGURES_SUB_TREE) != 0) {
+            configureSubTree = other.configureSubTree;
+        }
+        if ((settings & ENABLED) != 0) {
+            enabled = other.enabled;
+        }
+        if ((settings & PRINT_TIME) != 0) {
+            printTime = other.printTime;
+        }
+        if ((settings & PRINT_NAME) != 0) {
+            printName = other.printName;
+        }
+        if ((settings & PRINT_LEVEL) != 0) {
+            printLevel = other.printLevel;
+        }
+        if ((settings & PRINT_LOCATION) != 0) {
+            printLocation = other.printLocation;
+        }
+        if ((settings & ASYNC_OUTPUT) != 0) {
+            asyncOutput = other.asyncOutput;
+        }
+        if ((settings & TIME_FORMAT) != 0) {
+            timeFormat = other.timeFormat;
+        }
+        if ((settings & FILE_BUFFER_SIZE) != 0) {
+            fileBufferSize = other.fileBufferSize;
+        }
+        if ((settings & FILE_FLUSH_RECORDS) != 0) {
+            fileFlushRecords = other.fileFlushRecords;
+        }
+        if ((settings & FILE_FLUSH_INTERVAL) != 0) {
+            fileFlushInterval = other.fileFlushInterval;
+        }
+        if ((settings & FILE_FLUSH_LEVEL) != 0) {
+            fileFlushLevel = other.fileFlushLevel;
+        }
+        if ((settings & FILE_SYNC_LATENCY) != 0) {
+            fileSyncLatency = other.fileSyncLatency;
+        }
+        if ((settings & ROLLOVER_SIZE) != 0) {
+            rolloverSize = other.rolloverSize;
+        }
+        if ((settings & ROLLOVER_INTERVAL) != 0) {
+            rolloverInterval = other.rolloverInterval;
+        }
+        if ((settings & ROLLOVER_RETENTION) != 0) {
+            rolloverRetention = other.rolloverRetention;
+            rolloverMaxAge = other.rolloverMaxAge;
+        }
+        if ((settings & MAX_MESSAGE_LEVEL) != 0) {
+            maxMessageLevel = other.maxMessageLevel;
+        }
+        if ((settings & STREAM_MASK) != 0) {
+            streamMask = other.streamMask;
+        }
+        if ((settings & RATE_LIMIT) != 0) {
+            rateLimit = other.rateLimit;
+            rateLimitBurst = other.rateLimitBurst;
+        }
+        if ((settings & RATE_LIMIT_LEVEL) != 0) {
+            rateLimitLevel = other.rateLimitLevel;
+        }
+        if ((settings & RATE_LIMIT_PER_CALL_SITE) != 0) {
+            rateLimitPerCallSite = other.rateLimitPerCallSite;
+        }
+        if ((settings & COALESCE_TIMEOUT) != 0) {
+            coalesceTimeout = other.coalesceTimeout;
+        }
+        if ((settings & FLIGHT_RECORDER_LEVEL) != 0) {
+            flightRecorderLevel = other.flightRecorderLevel;
+        }
+        if ((settings & SAMPLING) != 0) {
+            sampleEveryNth = other.sampleEveryNth;
+            sampleProbability = other.sampleProbability;
+        }
     }
 
     /*tLoggingDomainConfiguration &operator = (const tLoggingDomainConfiguration other)
@@ -21,15 +21,30 @@
 //----------------------------------------------------------------------
 package org.rrlib.logging;
 
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
-import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 /**
@@ -62,63 +77,288 @@ public class LogDomainRegistry {
     LogDomainRegistry() {
         LogDomainConfiguration conf = new LogDomainConfiguration(".");
         conf.enabled = true;
-        domainConfigurations.add(conf);
-        domains.add(new LogDomain(conf));
+        domainConfigurations.put(conf.name, conf);
+        updateMaxMessageLevelBound(conf);
+        defaultDomain = new LogDomain(conf);
+        domains.put(conf.name, defaultDomain);
+        Runtime.getRuntime().addShutdownHook(new Thread(LogDomainRegistry::shutdown, "RRLib Logging Shutdown"));
     }
 
-    /** Get the index of the domain with the given name
+    /** Called on JVM shutdown
      *
-     * Helper method that implements the lookup for existing domains
-     *
-     * @param name   The name of the wanted domain
-     *
-     * @return The index of the domain if found. If not, the methods returns the size of the domain vector.
+     * Outputs summaries of messages dropped by rate limiters, writes all
+     * pending messages of domains with asynchronous output, reports
+     * coalesced repetitions and flushes buffers of file output.
+     * Memory-mapped files are truncated to the written data. A flight
+     * recorder dump that was requested by an error message is written.
      */
-    private int getDomainIndexByName(String name) {
-        for (int i = 0; i < domains.size(); i++) {
-            if (domains.get(i).getName().equals(name)) {
-                return i;
-            }
+    private static void shutdown() {
+        LogRateLimiter.reportAllSuppressed(LogFileFlusher.now(), true);
+        LogRingBuffer ringBuffer = LogRingBuffer.getInstanceIfStarted();
+        if (ringBuffer != null) {
+            ringBuffer.shutdown(SHUTDOWN_TIMEOUT);
         }
-        return domains.size();
+        LogMessageCoalescer.reportAllRepeated(LogFileFlusher.now(), true);
+        LogFlightRecorder.dumpIfRequested();
+        LogFileSink.flushAll();
+        LogMappedFileSink.closeAll();
     }
 
     /** Get a configuration object for a domain with the given name
      *
      * This methods implements the lookup for existing domain names and
-     * creates a new configuration object for new names.
+     * creates a new configuration object for new names. Rules matching
+     * a new name are applied to its configuration.
+     * If the name is a pattern (see isRulePattern), the configuration of
+     * the rule for this pattern is returned (created if necessary).
      *
      * @param name   The name of the domain to be configured
      *
      * @return The wanted domain configuration as a shared pointer
      */
     private LogDomainConfiguration getConfigurationByName(String name) {
-        for (LogDomainConfiguration conf : domainConfigurations) {
-            if (conf.name.equals(name)) {
-                return conf;
+        LogDomainConfiguration conf = domainConfigurations.get(name);
+        if (conf == null) {
+            if (isRulePattern(name)) {
+                return getRule(name).configuration;
             }
+            conf = domainConfigurations.computeIfAbsent(name, newName -> {
+                LogDomainConfiguration newConfiguration = new LogDomainConfiguration(newName);
+                applyRules(newConfiguration);
+                return newConfiguration;
+            });
         }
-        LogDomainConfiguration conf = new LogDomainConfiguration(name);
-        domainConfigurations.add(conf);
         return conf;
     }
 
-    /** Update configuration the subtree of a domain for recursion
+    /** Is name a pattern for a rule?
+     *
+     * Names passed to the setDomain* methods (or in configuration files)
+     * that contain '*' or '?' are patterns. Settings made for a pattern
+     * apply to all domains with matching names - unless these domains have
+     * explicit settings of their own. '*' matches any sequence of
+     * characters (including '.') and '?' matches any single character.
+     * E.g. "*.planner" matches all domains named planner - and
+     * "org.finroc.*.io" all io domains below org.finroc.
+     * If several rules match a domain, rules created later take precedence.
+     *
+     * @param name   Name to check
+     *
+     * @return True if name is a pattern
+     */
+    static boolean isRulePattern(String name) {
+        return name.indexOf('*') >= 0 || name.indexOf('?') >= 0;
+    }
+
+    /** Get rule for pattern - and create it if it does not exist yet
+     *
+     * @param pattern   Pattern (see isRulePattern)
      *
-     * If the configuration of one domain is changed start update of its
-     * subtree. This method should always be called because the decision
-     * about recursive configuration is done within its call.
-     * That keeps update methods simpler.
+     * @return Rule for this pattern
+     */
+    private DomainRule getRule(String pattern) {
+        synchronized (rules) {
+            for (DomainRule rule : rules) {
+                if (rule.configuration.name.equals(pattern)) {
+                    return rule;
+                }
+            }
+            DomainRule rule = new DomainRule(pattern);
+            rules.add(rule);
+            return rule;
+        }
+    }
+
+    /** Apply all matching rules to the given domain configuration
+     *
+     * Settings that were not set explicitly for the domain are reset to
+     * defaults - and then set by matching rules.
+     *
+     * @param configuration   Configuration of a domain
+     */
+    private void applyRules(LogDomainConfiguration configuration) {
+        synchronized (configuration) {
+            configuration.assign(DEFAULT_CONFIGURATION, ~configuration.configuredSettings);
+            for (DomainRule rule : rules) {
+                if (rule.matches(configuration.name)) {
+                    configuration.assign(rule.configuration, rule.configuration.configuredSettings & ~configuration.configuredSettings);
+                }
+            }
+        }
+        updateMaxMessageLevelBound(configuration);
+    }
+
+    /** Publish configuration of a domain and update its subtree for recursion
+     *
+     * If the configuration of one domain is changed, publish a new snapshot
+     * for it and start update of its subtree. This method should always be
+     * called because the decision about recursive configuration is done
+     * within its call. That keeps update methods simpler.
+     * Inside a configuration transaction, the change is only recorded and
+     * published on commit.
      *
      * @param name   The name of the updated domain
      */
     private void propagateDomainConfigurationToChildren(String name) {
-        int i = getDomainIndexByName(name);
-        if (i != domains.size()) {
-            for (LogDomain dom : domains.get(i).children) {
+        configurationRevision.incrementAndGet();
+        synchronized (pendingChanges) {
+            if (transactionDepth > 0) {
+                pendingChanges.add(name);
+                return;
+            }
+        }
+        if (isRulePattern(name)) {
+            // rules possibly affect many domains - update them in one pass
+            beginConfigurationTransaction();
+            synchronized (pendingChanges) {
+                pendingChanges.add(name);
+            }
+            commitConfigurationTransaction();
+            return;
+        }
+        applyRules(getConfigurationByName(name));
+        LogDomain domain = domains.get(name);
+        if (domain != null) {
+            domain.updateSnapshot();
+            for (LogDomain dom : domain.children.values()) {
                 dom.configureSubTree();
             }
         }
+        lowerMaxMessageLevelBound();
+    }
+
+    /** Begin a configuration transaction
+     *
+     * Changes made via the setDomain* methods until the matching call of
+     * commitConfigurationTransaction() are collected. On commit, inheritance
+     * is resolved and new snapshots are published in a single pass over the
+     * domain tree - instead of once per change. This makes applying many
+     * changes (e.g. from a configuration file) much cheaper.
+     * Transactions can be nested - changes are published when the
+     * outermost transaction is committed. Until then, domains might not
+     * reflect the changes.
+     * While a transaction is open, other threads wait before creating new
+     * domains or beginning transactions - so that new domains never copy
+     * partially applied configurations. Existing domains receive their new
+     * snapshots one after another on commit.
+     */
+    public void beginConfigurationTransaction() {
+        configurationLock.writeLock().lock();
+        synchronized (pendingChanges) {
+            transactionDepth++;
+        }
+    }
+
+    /** Commit a configuration transaction
+     *
+     * (see beginConfigurationTransaction)
+     */
+    public void commitConfigurationTransaction() {
+        try {
+            publishPendingChanges();
+        } finally {
+            configurationLock.writeLock().unlock();
+        }
+    }
+
+    /** Publish changes of configuration transaction if the outermost transaction is committed
+     *
+     * Only call from commitConfigurationTransaction()
+     */
+    private void publishPendingChanges() {
+        Set<String> changedNames;
+        synchronized (pendingChanges) {
+            assert(transactionDepth > 0);
+            transactionDepth--;
+            if (transactionDepth > 0 || pendingChanges.isEmpty()) {
+                return;
+            }
+            changedNames = new HashSet<String>(pendingChanges);
+            pendingChanges.clear();
+        }
+        configurationRevision.incrementAndGet();
+
+        // changed rules affect all domains with matching names
+        for (String name : changedNames.toArray(new String[0])) {
+            if (isRulePattern(name)) {
+                changedNames.remove(name);
+                DomainRule rule = getRule(name);
+                for (LogDomainConfiguration configuration : domainConfigurations.values()) {
+                    if (rule.matches(configuration.name)) {
+                        changedNames.add(configuration.name);
+                    }
+                }
+                if (rule.configuration.configuredSettings == 0) {
+                    rules.remove(rule);
+                }
+            }
+        }
+        for (String name : changedNames) {
+            applyRules(getConfigurationByName(name));
+        }
+
+        // create all snapshots first - then publish them together
+        // only visit changed domains, their subtrees and the paths leading to them
+        Set<String> visitedNames = new HashSet<String>(changedNames);
+        visitedNames.add(".");
+        for (String name : changedNames) {
+            for (int i = name.indexOf('.'); i > 0; i = name.indexOf('.', i + 1)) {
+                visitedNames.add(name.substring(0, i));
+            }
+        }
+        ArrayList<LogDomain> changedDomains = new ArrayList<LogDomain>();
+        ArrayList<LogDomainSnapshot> newSnapshots = new ArrayList<LogDomainSnapshot>();
+        defaultDomain.applyConfigurationChanges(changedNames, visitedNames, false, changedDomains, newSnapshots);
+        for (int i = 0; i < changedDomains.size(); i++) {
+            changedDomains.get(i).publishSnapshot(newSnapshots.get(i));
+        }
+        lowerMaxMessageLevelBound();
+    }
+
+    /** Update upper bound of max message levels after a domain configuration was changed
+     *
+     * Must be called whenever a domain configuration was changed - before
+     * snapshots reflecting the change are published. The bound is raised
+     * immediately if necessary. It is only lowered by
+     * lowerMaxMessageLevelBound() - after the new snapshots were published.
+     *
+     * @param configuration   The domain configuration that was changed
+     */
+    private static synchronized void updateMaxMessageLevelBound(LogDomainConfiguration configuration) {
+        int boundLevel = -1;
+        if (configuration.enabled) {
+            boundLevel = configuration.maxMessageLevel.ordinal();
+            if (configuration.flightRecorderLevel != null) {
+                boundLevel = Math.max(boundLevel, configuration.flightRecorderLevel.ordinal());
+            }
+        }
+        if (boundLevel == configuration.boundLevel) {
+            return;
+        }
+        if (configuration.boundLevel >= 0) {
+            configurationsPerBoundLevel[configuration.boundLevel]--;
+        }
+        if (boundLevel >= 0) {
+            configurationsPerBoundLevel[boundLevel]++;
+        }
+        configuration.boundLevel = boundLevel;
+        if (boundLevel > maxMessageLevelBound) {
+            maxMessageLevelBound = boundLevel;
+        }
+    }
+
+    /** Lower upper bound of max message levels to the highest level any enabled domain configuration has
+     *
+     * Called after new snapshots were published, so that static Log methods
+     * skip the caller lookup again when e.g. a temporary verbose setting is
+     * reverted.
+     */
+    private static synchronized void lowerMaxMessageLevelBound() {
+        int bound = configurationsPerBoundLevel.length - 1;
+        while (bound >= 0 && configurationsPerBoundLevel[bound] == 0) {
+            bound--;
+        }
+        maxMessageLevelBound = bound;
     }
 
     /** Add a domain configuration from a given XML node
@@ -136,7 +376,8 @@ public class LogDomainRegistry {
     }
 
     static final List<String> levelNames = Arrays.asList("user", "error", "warning", "debug_warning", "debug", "debug_verbose_1", "debug_verbose_2", "debug_verbose_3");
-    static final List<String> streamNames = Arrays.asList("stdout", "stderr", "file", "combined_file");
+    static final List<String> streamNames = Arrays.asList("stdout", "stderr", "file", "combined_file", "mapped_file", "binary_file", "flight_recorder");
+    static final List<String> timeFormatNames = Arrays.asList("time", "iso_8601", "epoch_micros", "monotonic");
 
     /** Add a domain configuration from a given XML node
      *
@@ -153,79 +394,319 @@ public class LogDomainRegistry {
 
         assert(node.getNodeName().equals("domain"));
 
-        String prefix = (parentName == "." ? "" : parentName) + ".";
-        String nodeName = node.getAttributes().getNamedItem("name").getNodeValue().trim();
-        String name = prefix + (parentName.length() == 0 && nodeName == "global" ? "" : nodeName);
+        NamedNodeMap attributes = node.getAttributes();
+        String name = getDomainName(attributes.getNamedItem("name").getNodeValue(), parentName);
+        applyDomainAttributes(name, attribute -> {
+            Node item = attributes.getNamedItem(attribute);
+            return item != null ? item.getNodeValue() : null;
+        });
 
-        Node item = node.getAttributes().getNamedItem("configures_sub_tree");
-        if (item != null) {
-            setDomainConfiguresSubTree(name, item.getNodeValue().trim().toLowerCase().equals("true"));
+        boolean streamConfigured = attributes.getNamedItem("stream") != null;
+        ArrayList<LogStreamOutput> streamMask = new ArrayList<LogStreamOutput>();
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeName().equals("stream")) {
+                if (streamConfigured) {
+                    System.err.println("RRLib Logging: tLoggingDomainRegistry::AddConfigurationFromXMLNode >> Stream already configured in domain element!");
+                    return false;
+                }
+                streamMask.add(LogStreamOutput.values()[streamNames.indexOf(child.getAttributes().getNamedItem("output").getNodeValue().trim().toLowerCase())]);
+            }
+        }
+        if (streamMask.size() > 0) {
+            setDomainStreamMask(name, streamMask.toArray(new LogStreamOutput[0]));
         }
 
-        item = node.getAttributes().getNamedItem("enabled");
-        if (item != null) {
-            setDomainIsEnabled(name, item.getNodeValue().trim().toLowerCase().equals("true"));
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeName().equals("domain")) {
+                if (!addConfigurationFromXMLNode(child, name)) {
+                    return false;
+                }
+            }
         }
 
-        item = node.getAttributes().getNamedItem("print_time");
-        if (item != null) {
-            setDomainPrintsTime(name, item.getNodeValue().trim().toLowerCase().equals("true"));
+        return true;
+    }
+
+    /** Add a domain configuration from the current element of an XML stream
+     *
+     * Streaming variant of addConfigurationFromXMLNode: the reader must be
+     * positioned at the start of a domain element. When this method returns,
+     * it is positioned at the end of this element. Nested domain elements
+     * are processed recursively.
+     *
+     * @param reader       Reader positioned at domain element
+     * @param parentName   For recursive calls the current domain name is build from parent_name and domain_name
+     *
+     * @return Whether the domain was successfully configured or not
+     */
+    boolean addConfigurationFromXMLStream(XMLStreamReader reader, String parentName) throws XMLStreamException {
+
+        assert(reader.getLocalName().equals("domain"));
+
+        String name = getDomainName(reader.getAttributeValue(null, "name"), parentName);
+        applyDomainAttributes(name, attribute -> reader.getAttributeValue(null, attribute));
+
+        boolean streamConfigured = reader.getAttributeValue(null, "stream") != null;
+        ArrayList<LogStreamOutput> streamMask = new ArrayList<LogStreamOutput>();
+        while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+            if (reader.getLocalName().equals("stream")) {
+                if (streamConfigured) {
+                    System.err.println("RRLib Logging: tLoggingDomainRegistry::AddConfigurationFromXMLNode >> Stream already configured in domain element!");
+                    return false;
+                }
+                streamMask.add(LogStreamOutput.values()[streamNames.indexOf(reader.getAttributeValue(null, "output").trim().toLowerCase())]);
+                skipElement(reader);
+            } else if (reader.getLocalName().equals("domain")) {
+                if (!addConfigurationFromXMLStream(reader, name)) {
+                    return false;
+                }
+            } else {
+                skipElement(reader);
+            }
         }
+        if (streamMask.size() > 0) {
+            setDomainStreamMask(name, streamMask.toArray(new LogStreamOutput[0]));
+        }
+
+        return true;
+    }
 
-        item = node.getAttributes().getNamedItem("print_name");
-        if (item != null) {
-            setDomainPrintsName(name, item.getNodeValue().trim().toLowerCase().equals("true"));
+    /** Get full qualified name of domain configured in XML element
+     *
+     * @param nodeName     Value of element's name attribute
+     * @param parentName   Name of domain configured in parent element ("" for top-level elements)
+     *
+     * @return Full qualified domain name
+     */
+    private static String getDomainName(String nodeName, String parentName) {
+        // domain names in registry have no leading '.' (the default domain is ".")
+        nodeName = nodeName.trim();
+        if (nodeName.length() > 1 && nodeName.charAt(0) == '.') {
+            nodeName = nodeName.substring(1);
+        }
+        if (parentName.length() == 0 && (nodeName.equals("global") || nodeName.equals("."))) {
+            return ".";
+        } else if (parentName.length() == 0 || parentName.equals(".")) {
+            return nodeName;
         }
+        return parentName + "." + nodeName;
+    }
 
-        item = node.getAttributes().getNamedItem("print_level");
-        if (item != null) {
-            setDomainPrintsLevel(name, item.getNodeValue().trim().toLowerCase().equals("true"));
+    /** Apply settings from the attributes of a domain element
+     *
+     * (the stream attribute is applied as well - stream child elements are not)
+     *
+     * @param name         Full qualified name of the domain
+     * @param attributes   Provides the value of an attribute (null if element has no such attribute)
+     */
+    private void applyDomainAttributes(String name, Function<String, String> attributes) {
+        if (configuredNames != null) {
+            configuredNames.add(name);
+            backupConfiguration(name);
         }
 
-        item = node.getAttributes().getNamedItem("print_location");
-        if (item != null) {
-            setDomainPrintsLocation(name, item.getNodeValue().trim().toLowerCase().equals("true"));
+        String value = attributes.apply("configures_sub_tree");
+        if (value != null) {
+            setDomainConfiguresSubTree(name, value.trim().toLowerCase().equals("true"));
         }
 
-        item = node.getAttributes().getNamedItem("max_level");
-        if (item != null) {
-            setDomainMinMessageLevel(name, LogLevel.values()[levelNames.indexOf(item.getNodeValue().trim().toLowerCase())]);
+        value = attributes.apply("enabled");
+        if (value != null) {
+            setDomainIsEnabled(name, value.trim().toLowerCase().equals("true"));
         }
 
-        boolean streamConfigured = false;
-        item = node.getAttributes().getNamedItem("stream");
-        if (item != null) {
-            streamConfigured = true;
-            setDomainStreamMask(name, LogStreamOutput.values()[streamNames.indexOf(item.getNodeValue().trim().toLowerCase())]);
+        value = attributes.apply("print_time");
+        if (value != null) {
+            setDomainPrintsTime(name, value.trim().toLowerCase().equals("true"));
         }
 
+        value = attributes.apply("print_name");
+        if (value != null) {
+            setDomainPrintsName(name, value.trim().toLowerCase().equals("true"));
+        }
 
-        ArrayList<LogStreamOutput> streamMask = new ArrayList<LogStreamOutput>();
-        for (int i = 0; i < node.getChildNodes().getLength(); i++) {
-            Node child = node.getChildNodes().item(i);
-            if (child.getNodeName().equals("stream")) {
-                if (streamConfigured) {
-                    System.err.println("RRLib Logging: tLoggingDomainRegistry::AddConfigurationFromXMLNode >> Stream already configured in domain element!");
-                    return false;
-                }
-                item = node.getAttributes().getNamedItem("output");
-                streamMask.add(LogStreamOutput.values()[streamNames.indexOf(item.getNodeValue().trim().toLowerCase())]);
+        value = attributes.apply("print_level");
+        if (value != null) {
+            setDomainPrintsLevel(name, value.trim().toLowerCase().equals("true"));
+        }
+
+        value = attributes.apply("print_location");
+        if (value != null) {
+            setDomainPrintsLocation(name, value.trim().toLowerCase().equals("true"));
+        }
+
+        value = attributes.apply("time_format");
+        if (value != null) {
+            setDomainTimeFormat(name, LogTimeFormat.values()[timeFormatNames.indexOf(value.trim().toLowerCase())]);
+        }
+
+        value = attributes.apply("async");
+        if (value != null) {
+            setDomainOutputsAsynchronously(name, value.trim().toLowerCase().equals("true"));
+        }
+
+        value = attributes.apply("file_buffer_size");
+        if (value != null) {
+            setDomainFileBufferSize(name, (int)parseSize(value));
+        }
+
+        value = attributes.apply("file_flush_records");
+        if (value != null) {
+            setDomainFileFlushRecords(name, Integer.parseInt(value.trim()));
+        }
+
+        value = attributes.apply("file_flush_interval");
+        if (value != null) {
+            setDomainFileFlushInterval(name, parseDuration(value));
+        }
+
+        value = attributes.apply("file_flush_level");
+        if (value != null) {
+            String level = value.trim().toLowerCase();
+            setDomainFileFlushLevel(name, level.equals("none") ? null : LogLevel.values()[levelNames.indexOf(level)]);
+        }
+
+        value = attributes.apply("file_sync_latency");
+        if (value != null) {
+            setDomainFileSyncLatency(name, parseDuration(value));
+        }
+
+        value = attributes.apply("rollover_size");
+        if (value != null) {
+            setDomainRolloverSize(name, parseSize(value));
+        }
+
+        value = attributes.apply("rollover_interval");
+        if (value != null) {
+            setDomainRolloverInterval(name, parseDuration(value));
+        }
+
+        value = attributes.apply("rollover_retention");
+        if (value != null) {
+            setDomainRolloverRetention(name, Integer.parseInt(value.trim()), getConfigurationByName(name).rolloverMaxAge);
+        }
+
+        value = attributes.apply("rollover_max_age");
+        if (value != null) {
+            setDomainRolloverRetention(name, getConfigurationByName(name).rolloverRetention, parseDuration(value));
+        }
+
+        value = attributes.apply("rate_limit");
+        if (value != null) {
+            setDomainRateLimit(name, Double.parseDouble(value.trim()), getConfigurationByName(name).rateLimitBurst);
+        }
+
+        value = attributes.apply("rate_limit_burst");
+        if (value != null) {
+            setDomainRateLimit(name, getConfigurationByName(name).rateLimit, Integer.parseInt(value.trim()));
+        }
+
+        value = attributes.apply("rate_limit_level");
+        if (value != null) {
+            setDomainRateLimitLevel(name, LogLevel.values()[levelNames.indexOf(value.trim().toLowerCase())]);
+        }
+
+        value = attributes.apply("rate_limit_scope");
+        if (value != null) {
+            String scope = value.trim().toLowerCase();
+            if (!scope.equals("call_site") && !scope.equals("domain")) {
+                throw new IllegalArgumentException("Invalid rate_limit_scope '" + value + "' (must be call_site or domain)");
             }
+            setDomainRateLimitsCallSites(name, scope.equals("call_site"));
         }
-        if (streamMask.size() > 0) {
-            setDomainStreamMask(name, streamMask.toArray(new LogStreamOutput[0]));
+
+        value = attributes.apply("coalesce_timeout");
+        if (value != null) {
+            setDomainCoalescesRepeatedMessages(name, parseDuration(value));
         }
 
-        for (int i = 0; i < node.getChildNodes().getLength(); i++) {
-            Node child = node.getChildNodes().item(i);
-            if (child.getNodeName().equals("domain")) {
-                if (!addConfigurationFromXMLNode(child, name)) {
-                    return false;
-                }
+        value = attributes.apply("sample_every");
+        if (value != null) {
+            for (String entry : value.split(",")) {
+                String[] levelAndValue = entry.split(":");
+                setDomainSamplesEveryNth(name, LogLevel.values()[levelNames.indexOf(levelAndValue[0].trim().toLowerCase())], Integer.parseInt(levelAndValue[1].trim()));
             }
         }
 
-        return true;
+        value = attributes.apply("sample_probability");
+        if (value != null) {
+            for (String entry : value.split(",")) {
+                String[] levelAndValue = entry.split(":");
+                setDomainSamplingProbability(name, LogLevel.values()[levelNames.indexOf(levelAndValue[0].trim().toLowerCase())], Double.parseDouble(levelAndValue[1].trim()));
+            }
+        }
+
+        value = attributes.apply("flight_recorder_level");
+        if (value != null) {
+            setDomainFlightRecorderLevel(name, LogLevel.values()[levelNames.indexOf(value.trim().toLowerCase())]);
+        }
+
+        value = attributes.apply("max_level");
+        if (value != null) {
+            setDomainMinMessageLevel(name, LogLevel.values()[levelNames.indexOf(value.trim().toLowerCase())]);
+        }
+
+        value = attributes.apply("stream");
+        if (value != null) {
+            setDomainStreamMask(name, LogStreamOutput.values()[streamNames.indexOf(value.trim().toLowerCase())]);
+        }
+    }
+
+    /** Apply settings from the attributes of the rrlib_logging element
+     *
+     * @param attributes   Provides the value of an attribute (null if element has no such attribute)
+     */
+    private void applyGlobalAttributes(Function<String, String> attributes) {
+        String size = attributes.apply("flight_recorder_size");
+        String records = attributes.apply("flight_recorder_records");
+        if (size != null || records != null) {
+            setFlightRecorderSize(size != null ? (int)parseSize(size) : LogFlightRecorder.DEFAULT_CAPACITY, records != null ? Integer.parseInt(records.trim()) : 0);
+        }
+
+        String signal = attributes.apply("flight_recorder_signal");
+        if (signal != null) {
+            dumpFlightRecorderOnSignal(signal.trim());
+        }
+    }
+
+    /** Parse size value from XML attribute
+     *
+     * @param value   Number of bytes - optionally with suffix k, m or g (e.g. 64k)
+     *
+     * @return Number of bytes
+     */
+    static long parseSize(String value) {
+        value = value.trim().toLowerCase();
+        long factor = 1;
+        if (value.endsWith("k")) {
+            factor = 1024;
+        } else if (value.endsWith("m")) {
+            factor = 1024 * 1024;
+        } else if (value.endsWith("g")) {
+            factor = 1024 * 1024 * 1024;
+        }
+        if (factor != 1) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        return Long.parseLong(value) * factor;
+    }
+
+    /** Parse duration value from XML attribute
+     *
+     * @param value   Duration - with suffix ms, s, m, h or d (e.g. 12h). Without suffix, seconds are assumed.
+     *
+     * @return Duration in ms
+     */
+    static long parseDuration(String value) {
+        value = value.trim().toLowerCase();
+        String[] suffixes = {"ms", "s", "m", "h", "d"};
+        long[] factors = {1, 1000, 60 * 1000, 60 * 60 * 1000, 24 * 60 * 60 * 1000};
+        for (int i = 0; i < suffixes.length; i++) {
+            if (value.endsWith(suffixes[i])) {
+                return Long.parseLong(value.substring(0, value.length() - suffixes[i].length()).trim()) * factors[i];
+            }
+        }
+        return Long.parseLong(value) * 1000;
     }
 
     /** Get an instance of this class (singleton)
@@ -247,7 +728,7 @@ public class LogDomainRegistry {
      * @return The default domain object
      */
     public static LogDomain getDefaultDomain() {
-        return getInstance().domains.get(0);
+        return getInstance().defaultDomain;
     }
 
     /** Get a subdomain with given name and parent.
@@ -257,6 +738,12 @@ public class LogDomainRegistry {
      * was not found creates a new one and applies an eventually existing
      * configuration.
      *
+     * Thread-safe without global lock: domains are inserted into their
+     * parent's child map atomically - so concurrent calls for the same name
+     * return the same domain and threads creating domains in different
+     * subtrees do not block each other. If the configuration is changed
+     * while a domain is created, the new domain applies it afterwards.
+     *
      * @param name     The name of the subdomain (local part)
      * @param parent   The parent of the subdomain
      *
@@ -265,14 +752,27 @@ public class LogDomainRegistry {
     public LogDomain getSubDomain(String name, LogDomain parent) {
         assert(name != null && name.length() > 0 && parent != null);
         String fullQualifiedDomainName = (parent != getDefaultDomain() ? (parent.getName() + ".") : "") + name;
-        int i = getDomainIndexByName(fullQualifiedDomainName);
-        if (i == domains.size()) {
-            LogDomainConfiguration configuration = getConfigurationByName(fullQualifiedDomainName);
-            LogDomain ld = new LogDomain(configuration, parent);
-            domains.add(ld);
-            return ld;
+        LogDomain ld = parent.children.get(name);
+        if (ld == null) {
+            // wait for open configuration transactions (see beginConfigurationTransaction)
+            configurationLock.readLock().lock();
+            try {
+                long revision = configurationRevision.get();
+                LogDomain[] created = new LogDomain[1];
+                ld = parent.children.computeIfAbsent(name, localName -> created[0] = new LogDomain(getConfigurationByName(fullQualifiedDomainName), parent));
+                if (created[0] != null) {
+                    domains.put(fullQualifiedDomainName, ld);
+                    if (configurationRevision.get() != revision) {
+                        applyRules(getConfigurationByName(fullQualifiedDomainName));
+                        ld.configureSubTree();
+                        ld.updateSnapshot();
+                    }
+                }
+            } finally {
+                configurationLock.readLock().unlock();
+            }
         }
-        return domains.get(i);
+        return ld;
 
     }
 
@@ -289,6 +789,10 @@ public class LogDomainRegistry {
     public void setOutputFileNamePrefix(String fileNamePrefix) {
         assert(fileNamePrefix.length() > 0);
         this.fileNamePrefix = fileNamePrefix;
+        configurationRevision.incrementAndGet();
+        for (LogDomain domain : domains.values()) {
+            domain.updateSnapshot();
+        }
     }
 
     /** Get the configured file name prefix
@@ -370,6 +874,7 @@ public class LogDomainRegistry {
      */
     public void setDomainConfiguresSubTree(String name, boolean value) {
         LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.CONFIGURES_SUB_TREE;
         configuration.configureSubTree = value;
         propagateDomainConfigurationToChildren(name);
     }
@@ -384,6 +889,7 @@ public class LogDomainRegistry {
      */
     public void setDomainIsEnabled(String name, boolean value) {
         LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.ENABLED;
         configuration.enabled = value;
         propagateDomainConfigurationToChildren(name);
     }
@@ -397,10 +903,25 @@ public class LogDomainRegistry {
      */
     public void setDomainPrintsTime(String name, boolean value) {
         LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.PRINT_TIME;
         configuration.printTime = value;
         propagateDomainConfigurationToChildren(name);
     }
 
+    /** Set the format the domain uses to print the current time
+     *
+     * Only relevant if the domain prints time (see setDomainPrintsTime).
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting
+     */
+    public void setDomainTimeFormat(String name, LogTimeFormat value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.TIME_FORMAT;
+        configuration.timeFormat = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
     /** Set if the domain should prepend messages with its name
      *
      * If set to true every message will include the full qualified domain
@@ -411,6 +932,7 @@ public class LogDomainRegistry {
      */
     public void setDomainPrintsName(String name, boolean value) {
         LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.PRINT_NAME;
         configuration.printName = value;
         propagateDomainConfigurationToChildren(name);
     }
@@ -424,6 +946,7 @@ public class LogDomainRegistry {
      */
     public void setDomainPrintsLevel(String name, boolean value) {
         LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.PRINT_LEVEL;
         configuration.printLevel = value;
         propagateDomainConfigurationToChildren(name);
     }
@@ -438,10 +961,157 @@ public class LogDomainRegistry {
      */
     public void setDomainPrintsLocation(String name, boolean value) {
         LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.PRINT_LOCATION;
         configuration.printLocation = value;
         propagateDomainConfigurationToChildren(name);
     }
 
+    /** Set if the domain should output messages asynchronously
+     *
+     * If set to true, logging threads only format the message text and
+     * pass it to a separate writer thread via a lock-free ring buffer.
+     * The writer thread does the remaining formatting and I/O. So slow
+     * output streams do not stall logging threads. On shutdown, pending
+     * messages are written before the JVM exits.
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting
+     */
+    public void setDomainOutputsAsynchronously(String name, boolean value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.ASYNC_OUTPUT;
+        configuration.asyncOutput = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set the size of the buffer for file output
+     *
+     * Messages written to the domain's own file (or its combined file if it
+     * is the root of a recursively configured subtree) are collected in a
+     * buffer of this size before they are written to the file.
+     * Takes effect when the file is opened.
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting (in bytes)
+     */
+    public void setDomainFileBufferSize(String name, int value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.FILE_BUFFER_SIZE;
+        configuration.fileBufferSize = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set after how many records the buffer for file output is flushed
+     *
+     * If set to 0, the buffer is only written to the file when it is full.
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting
+     */
+    public void setDomainFileFlushRecords(String name, int value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.FILE_FLUSH_RECORDS;
+        configuration.fileFlushRecords = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set after which time buffered file output is flushed
+     *
+     * Buffered messages are written to the file by a background thread
+     * at latest after this time.
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting (in ms - 0 means only when buffer is full)
+     */
+    public void setDomainFileFlushInterval(String name, long value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.FILE_FLUSH_INTERVAL;
+        configuration.fileFlushInterval = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set up to which level messages are flushed to file immediately
+     *
+     * E.g. with LogLevel.ERROR, user and error messages are written to the
+     * file right away (together with any buffered messages). If forcing
+     * output to disk is enabled (see setDomainFileSyncLatency), logging
+     * such a message returns when it is on disk.
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting (null means no message is flushed immediately)
+     */
+    public void setDomainFileFlushLevel(String name, LogLevel value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.FILE_FLUSH_LEVEL;
+        configuration.fileFlushLevel = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set after which time file output is forced to disk (fsync)
+     *
+     * Data written to the file is forced to disk by a background thread
+     * at latest after this time. Messages at flush level (see
+     * setDomainFileFlushLevel) wait for the next sync - which is started
+     * immediately. Concurrent waiters share one sync (group commit).
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting (in ms - 0 means output is never forced to disk)
+     */
+    public void setDomainFileSyncLatency(String name, long value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.FILE_SYNC_LATENCY;
+        configuration.fileSyncLatency = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set the size at which the domain's log file is rolled over
+     *
+     * If the file would exceed this size, it is renamed to
+     * <file name>.<time>, compressed in the background and a new file is
+     * started. Applies to the domain's own file (or its combined file if it
+     * is the root of a recursively configured subtree).
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting (in bytes - 0 means no limit)
+     */
+    public void setDomainRolloverSize(String name, long value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.ROLLOVER_SIZE;
+        configuration.rolloverSize = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set the interval in which the domain's log file is rolled over
+     *
+     * Works like rolling over by size (see setDomainRolloverSize) - both can
+     * be combined.
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting (in ms - 0 means no time-based rollover)
+     */
+    public void setDomainRolloverInterval(String name, long value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.ROLLOVER_INTERVAL;
+        configuration.rolloverInterval = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set how many rolled over segments of the domain's log file are kept
+     *
+     * Older compressed segments are deleted after each rollover.
+     *
+     * @param name    The full qualified name of the domain
+     * @param count   Maximum number of segments to keep (0 means no limit)
+     * @param maxAge  Maximum age of segments to keep in ms (0 means no limit)
+     */
+    public void setDomainRolloverRetention(String name, int count, long maxAge) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.ROLLOVER_RETENTION;
+        configuration.rolloverRetention = count;
+        configuration.rolloverMaxAge = maxAge;
+        propagateDomainConfigurationToChildren(name);
+    }
+
     /** Set the minimal message level of the given domain
      *
      * The output of each message that has a level below the given value
@@ -453,10 +1123,180 @@ public class LogDomainRegistry {
      */
     public void setDomainMinMessageLevel(String name, LogLevel value) {
         LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.MAX_MESSAGE_LEVEL;
         configuration.maxMessageLevel = value;
         propagateDomainConfigurationToChildren(name);
     }
 
+    /** Limit the rate of messages that the domain outputs
+     *
+     * Messages exceeding the rate are dropped before they are formatted.
+     * The number of dropped messages is output in a summary line later
+     * (at most every 5 s for each call site).
+     * Does not affect messages with levels more severe than the rate
+     * limit level (see setDomainRateLimitLevel).
+     *
+     * @param name    The full qualified name of the domain
+     * @param rate    Maximum number of messages per second (0 means no limit)
+     * @param burst   Number of messages that may be output at once before limit takes effect (0 means as many as in one second)
+     */
+    public void setDomainRateLimit(String name, double rate, int burst) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.RATE_LIMIT;
+        configuration.rateLimit = rate;
+        configuration.rateLimitBurst = burst;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set the most severe level of messages whose rate is limited
+     *
+     * E.g. with LogLevel.WARNING (default), user and error messages are
+     * never dropped.
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting
+     */
+    public void setDomainRateLimitLevel(String name, LogLevel value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.RATE_LIMIT_LEVEL;
+        configuration.rateLimitLevel = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set whether the rate of messages is limited per call site or for the whole domain
+     *
+     * Call sites are identified by file and line. At most
+     * LogRateLimiter.MAX_CALL_SITES call sites get their own token bucket -
+     * further call sites share one bucket.
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   True to limit each call site separately (default) - false to limit the domain as a whole
+     */
+    public void setDomainRateLimitsCallSites(String name, boolean value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.RATE_LIMIT_PER_CALL_SITE;
+        configuration.rateLimitPerCallSite = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set whether the domain coalesces repeated messages
+     *
+     * If a message is identical to the previous message of the domain
+     * (same level, call site, caller description and text), it is not
+     * output but counted. A line "last message repeated N times" is output
+     * when a different message arrives - or after the given timeout.
+     *
+     * @param name      The full qualified name of the domain
+     * @param timeout   Time in ms after which repetitions are reported at latest (0 means repeated messages are not coalesced)
+     */
+    public void setDomainCoalescesRepeatedMessages(String name, long timeout) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.COALESCE_TIMEOUT;
+        configuration.coalesceTimeout = timeout;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Keep only every Nth message of the given level
+     *
+     * Sampling is decided before the caller's stack frame is determined
+     * and before the message is formatted - so dropped messages are cheap.
+     * The count is shared by all threads logging to the domain. Can be
+     * combined with probabilistic sampling (see setDomainSamplingProbability).
+     *
+     * @param name    The full qualified name of the domain
+     * @param level   The level of messages to sample
+     * @param value   N (1 means all messages are kept)
+     */
+    public void setDomainSamplesEveryNth(String name, LogLevel level, int value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.SAMPLING;
+        int[] everyNth = new int[LogLevel.DIMENSION.ordinal()];
+        Arrays.fill(everyNth, 1);
+        if (configuration.sampleEveryNth != null) {
+            System.arraycopy(configuration.sampleEveryNth, 0, everyNth, 0, everyNth.length);
+        }
+        everyNth[level.ordinal()] = Math.max(1, value);
+        configuration.sampleEveryNth = everyNth;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Keep messages of the given level only with the given probability
+     *
+     * (see setDomainSamplesEveryNth - the decision is made with the calling
+     * thread's ThreadLocalRandom)
+     *
+     * @param name    The full qualified name of the domain
+     * @param level   The level of messages to sample
+     * @param value   Probability that a message is kept (1 means all messages are kept)
+     */
+    public void setDomainSamplingProbability(String name, LogLevel level, double value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.SAMPLING;
+        double[] probability = new double[LogLevel.DIMENSION.ordinal()];
+        Arrays.fill(probability, 1);
+        if (configuration.sampleProbability != null) {
+            System.arraycopy(configuration.sampleProbability, 0, probability, 0, probability.length);
+        }
+        probability[level.ordinal()] = value;
+        configuration.sampleProbability = probability;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set up to which level messages are recorded by the flight recorder
+     *
+     * Only relevant if the domain uses LogStreamOutput.FLIGHT_RECORDER.
+     * The level may be higher than the domain's max level: e.g. verbose
+     * debug messages can be kept in the flight recorder - while only
+     * warnings are written to the console or files.
+     *
+     * @param name    The full qualified name of the domain
+     * @param value   The new value of the setting (null means the domain's max level)
+     */
+    public void setDomainFlightRecorderLevel(String name, LogLevel value) {
+        LogDomainConfiguration configuration = getConfigurationByName(name);
+        configuration.configuredSettings |= LogDomainConfiguration.FLIGHT_RECORDER_LEVEL;
+        configuration.flightRecorderLevel = value;
+        propagateDomainConfigurationToChildren(name);
+    }
+
+    /** Set how many messages the flight recorder keeps
+     *
+     * The flight recorder is shared by all domains that use
+     * LogStreamOutput.FLIGHT_RECORDER. If its capacity changes, recorded
+     * messages are discarded.
+     *
+     * @param capacity     Size of flight recorder's buffer in bytes (default is 4 MB)
+     * @param maxRecords   Maximum number of messages kept (0 means no limit - apart from capacity)
+     */
+    public void setFlightRecorderSize(int capacity, int maxRecords) {
+        LogFlightRecorder.getInstance().configure(capacity, maxRecords);
+    }
+
+    /** Write the messages in the flight recorder to a new file
+     *
+     * The file is named <prefix>.flight_recorder.<time>.log (see
+     * setOutputFileNamePrefix). Messages are kept in the flight recorder.
+     *
+     * @return Name of file - or null if no domain uses the flight recorder or the file could not be written
+     */
+    public String dumpFlightRecorder() {
+        LogFlightRecorder flightRecorder = LogFlightRecorder.getInstanceIfCreated();
+        return flightRecorder != null ? flightRecorder.dump("requested") : null;
+    }
+
+    /** Write the messages in the flight recorder to a new file whenever the given signal is received
+     *
+     * (see dumpFlightRecorder - relies on sun.misc.Signal which is not
+     * available on all platforms)
+     *
+     * @param signalName   Name of signal (e.g. "USR2")
+     *
+     * @return Whether signal handler could be installed
+     */
+    public boolean dumpFlightRecorderOnSignal(String signalName) {
+        return LogFlightRecorder.dumpOnSignal(signalName);
+    }
+
     /** Set the output stream that should be used by the given domain
      *
      * If set to true every configuration update to the given domain
@@ -467,11 +1307,9 @@ public class LogDomainRegistry {
      */
     public void setDomainStreamMask(String name, LogStreamOutput... outputs) {
         LogDomainConfiguration configuration = getConfigurationByName(name);
-        synchronized (configuration) {
-            configuration.streamMask = outputs;
-            configuration.streamMaskRevision = LogDomainConfiguration.streamMaskRevisionGen.incrementAndGet();
-            propagateDomainConfigurationToChildren(name);
-        }
+        configuration.configuredSettings |= LogDomainConfiguration.STREAM_MASK;
+        configuration.streamMask = outputs;
+        propagateDomainConfigurationToChildren(name);
     }
 
     /** Read domain configuration from a given XML file
@@ -486,17 +1324,111 @@ public class LogDomainRegistry {
      * @return Whether the configuration could be read and applied or not
      */
     public boolean configureFromFile(String fileName) {
-        try {
-            // parse XML
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dbuilder = factory.newDocumentBuilder();
-            Document doc = dbuilder.parse(fileName);
+        return configureFromFile(fileName, false);
+    }
+
+    /** Read domain configuration from a given XML file - and optionally reload it whenever it changes
+     *
+     * (see configureFromFile(String))
+     * If the file is read again, the settings of all domains it configured
+     * before are reset to their defaults and the new settings are applied.
+     * All changes are applied in one configuration transaction: the new
+     * snapshots are published together at the end - and only for domains
+     * whose effective settings changed. If the file cannot be parsed or
+     * applied, the previous configuration is kept.
+     *
+     * @param fileName          The XML file to be read
+     * @param watchForChanges   Reload file whenever it is modified?
+     *
+     * @return Whether the configuration could be read and applied or not
+     */
+    public boolean configureFromFile(String fileName, boolean watchForChanges) {
+        boolean result = loadConfigurationFile(fileName);
+        if (watchForChanges) {
+            try {
+                LogConfigurationWatcher.watch(Paths.get(fileName));
+            } catch (Exception e) {
+                System.err.println("RRLib Logging: tLoggingDomainRegistry::ConfigureFromFile >> Cannot watch `" + fileName + "': " + e.getMessage());
+                return false;
+            }
+        }
+        return result;
+    }
 
-            return configureFromXMLNode(doc.getFirstChild());
+    /** Read domain configuration from a given XML file (replacing settings that were read from this file before)
+     *
+     * @param fileName   The XML file to be read
+     *
+     * @return Whether the configuration could be read and applied or not
+     */
+    boolean loadConfigurationFile(String fileName) {
+        InputStream in;
+        XMLStreamReader reader;
+        try {
+            // parse XML while reading it (DTD is not loaded)
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            in = new BufferedInputStream(new FileInputStream(fileName), 65536);
+            reader = factory.createXMLStreamReader(in);
         } catch (Exception e) {
             System.err.println("RRLib Logging: tLoggingDomainRegistry::ConfigureFromFile >> " + e.getMessage());
             return false;
         }
+
+        String key = Paths.get(fileName).toAbsolutePath().normalize().toString();
+        synchronized (configurationFiles) {
+            configurationBackup = new HashMap<String, LogDomainConfiguration>();
+            beginConfigurationTransaction();
+            boolean result = false;
+            try {
+                Set<String> previousNames = configurationFiles.get(key);
+                if (previousNames != null) {
+                    for (String name : previousNames) {
+                        backupConfiguration(name);
+                        getConfigurationByName(name).assign(new LogDomainConfiguration(name));
+                        propagateDomainConfigurationToChildren(name);
+                    }
+                }
+                configuredNames = new HashSet<String>();
+                result = configureFromXMLStream(reader);
+                if (result) {
+                    configurationFiles.put(key, configuredNames);
+                }
+            } catch (XMLStreamException e) {
+                System.err.println("RRLib Logging: tLoggingDomainRegistry::ConfigureFromFile >> " + e.getMessage());
+            } finally {
+                configuredNames = null;
+                try {
+                    reader.close();
+                    in.close();
+                } catch (Exception e) {
+                    // ignore
+                }
+                if (!result) {
+                    System.err.println("RRLib Logging: tLoggingDomainRegistry::ConfigureFromFile >> Keeping previous configuration");
+                    for (Map.Entry<String, LogDomainConfiguration> entry : configurationBackup.entrySet()) {
+                        getConfigurationByName(entry.getKey()).assign(entry.getValue());
+                    }
+                }
+                configurationBackup = null;
+                commitConfigurationTransaction();
+            }
+            return result;
+        }
+    }
+
+    /** Remember configuration before the file that is currently loaded changes it
+     *
+     * Only configurations that the file changes are copied - so loading a
+     * file does not depend on the total number of configurations.
+     *
+     * @param name   Name of domain (or rule pattern)
+     */
+    private void backupConfiguration(String name) {
+        if (configurationBackup != null && !configurationBackup.containsKey(name)) {
+            configurationBackup.put(name, new LogDomainConfiguration(name, getConfigurationByName(name)));
+        }
     }
 
     /** Read domain configuration from a given XML node
@@ -511,14 +1443,19 @@ public class LogDomainRegistry {
      * @return Whether the configuration could be applied or not
      */
     public boolean configureFromXMLNode(Node node) {
-        if (node.getNodeName() != "rrlib_logging") {
+        if (!node.getNodeName().equals("rrlib_logging")) {
             System.err.println("RRLib Logging: tLoggingDomainRegistry::ConfigureFromXMLNode >> Unexpected content (Not an rrlib_logging tree)");
             return false;
         }
 
+        beginConfigurationTransaction();
         try {
-            for (int i = 0; i < node.getChildNodes().getLength(); i++) {
-                Node child = node.getChildNodes().item(i);
+            NamedNodeMap attributes = node.getAttributes();
+            applyGlobalAttributes(attribute -> {
+                Node item = attributes.getNamedItem(attribute);
+                return item != null ? item.getNodeValue() : null;
+            });
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
                 if (child.getNodeName().equals("domain")) {
                     if (!addConfigurationFromXMLNode(child)) {
                         return false;
@@ -528,26 +1465,121 @@ public class LogDomainRegistry {
         } catch (Exception e) {
             System.err.println("RRLib Logging: tLoggingDomainRegistry::ConfigureFromXMLNode >> " + e.getMessage());
             return false;
+        } finally {
+            commitConfigurationTransaction();
+        }
+
+        return true;
+    }
+
+    /** Read domain configuration from an XML stream
+     *
+     * Streaming variant of configureFromXMLNode: the configuration is
+     * applied while the document is read - in a single pass and without
+     * building a document tree. The reader must be positioned before the
+     * rrlib_logging element (e.g. at start of document).
+     * The configuration is applied in one configuration transaction.
+     *
+     * @param reader   Reader for the document containing the configuration
+     *
+     * @return Whether the configuration could be applied or not
+     */
+    public boolean configureFromXMLStream(XMLStreamReader reader) throws XMLStreamException {
+        if (nextElement(reader) != XMLStreamConstants.START_ELEMENT || !reader.getLocalName().equals("rrlib_logging")) {
+            System.err.println("RRLib Logging: tLoggingDomainRegistry::ConfigureFromXMLNode >> Unexpected content (Not an rrlib_logging tree)");
+            return false;
+        }
+
+        beginConfigurationTransaction();
+        try {
+            applyGlobalAttributes(attribute -> reader.getAttributeValue(null, attribute));
+            while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+                if (reader.getLocalName().equals("domain")) {
+                    if (!addConfigurationFromXMLStream(reader, "")) {
+                        return false;
+                    }
+                } else {
+                    skipElement(reader);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw e;
+        } catch (Exception e) {
+            System.err.println("RRLib Logging: tLoggingDomainRegistry::ConfigureFromXMLNode >> " + e.getMessage());
+            return false;
+        } finally {
+            commitConfigurationTransaction();
         }
 
         return true;
     }
 
+    /** Advance XML stream to the next start or end of an element
+     *
+     * @param reader   Reader for XML document
+     *
+     * @return XMLStreamConstants.START_ELEMENT, XMLStreamConstants.END_ELEMENT - or XMLStreamConstants.END_DOCUMENT
+     */
+    private static int nextElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT) {
+                return event;
+            }
+        }
+        return XMLStreamConstants.END_DOCUMENT;
+    }
+
+    /** Skip current element (including all nested elements)
+     *
+     * @param reader   Reader positioned at start of element - positioned at its end afterwards
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        for (int depth = 1; depth > 0;) {
+            int event = nextElement(reader);
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else {
+                throw new XMLStreamException("Unexpected end of document");
+            }
+        }
+    }
+
     /**
      * Returns domain for specified package (creates it if necessary)
      *
+     * Uses the same qualified name cache as the class lookup - so no
+     * references to packages (and their class loaders) are kept.
+     *
      * @param package1 Package to obtain domain for
      * @return Log domain
      */
     public static LogDomain getDomainForPackage(Package package1) {
-        LogDomain result = domainForPackageLookup.get(package1);
-        if (result == null) {
-            synchronized (LogDomain.class) {
-                result = getDomainByQualifiedName(package1.getName());
-                domainForPackageLookup.put(package1, result);
-            }
-        }
-        return result;
+        return getDomainByQualifiedName(package1.getName());
+    }
+
+    /**
+     * Returns domain for the package of the specified class (creates it if necessary)
+     *
+     * The result is cached per class - so this is cheap to call in log methods.
+     *
+     * @param c Class to obtain domain for
+     * @return Log domain
+     */
+    public static LogDomain getDomainForClass(Class<?> c) {
+        return callerClassInfoLookup.get(c).domain;
+    }
+
+    /**
+     * Returns cached logging information on the specified class
+     *
+     * @param c Class to obtain information for
+     * @return Cached information (domain and default origin string)
+     */
+    static CallerClassInfo getCallerClassInfo(Class<?> c) {
+        return callerClassInfoLookup.get(c);
     }
 
     /**
@@ -562,30 +1594,140 @@ public class LogDomainRegistry {
         }
         LogDomain result = domainForQualifiedNameLookup.get(name);
         if (result == null) {
-            synchronized (LogDomain.class) {
-                String[] names = name.split("[.]");
-                int index = (names[0].length() == 0) ? 1 : 0;
-                LogDomain current = getDefaultDomain();
-                for (int i = index; i < names.length; i++) {
-                    current = current.getSubDomain(names[i]);
-                }
-                result = current;
-
-                domainForQualifiedNameLookup.put(name, result);
+            String[] names = name.split("[.]");
+            int index = (names[0].length() == 0) ? 1 : 0;
+            LogDomain current = getDefaultDomain();
+            for (int i = index; i < names.length; i++) {
+                current = current.getSubDomain(names[i]);
             }
+            result = current;
+
+            domainForQualifiedNameLookup.put(name, result);
         }
         return result;
     }
 
 
+    /** Maximum time to wait for pending messages to be written on shutdown (in ms) */
+    private static final long SHUTDOWN_TIMEOUT = 5000;
+
     private String fileNamePrefix;
-    private ArrayList<LogDomain> domains = new ArrayList<LogDomain>();
-    private ArrayList<LogDomainConfiguration> domainConfigurations = new ArrayList<LogDomainConfiguration>();
+    private LogDomain defaultDomain;
+
+    /** Active domains by full qualified name */
+    private final ConcurrentHashMap<String, LogDomain> domains = new ConcurrentHashMap<String, LogDomain>();
+
+    /** Domain configurations by full qualified name (created along with domains or by configuration before the domain exists) */
+    private final ConcurrentHashMap<String, LogDomainConfiguration> domainConfigurations = new ConcurrentHashMap<String, LogDomainConfiguration>();
+
+    /** Names of domains whose configuration was changed in current transaction (also used as lock for transaction state) */
+    private final HashSet<String> pendingChanges = new HashSet<String>();
+
+    /** Held for writing while a configuration transaction is open - and for reading while a domain is created */
+    private final ReentrantReadWriteLock configurationLock = new ReentrantReadWriteLock();
+
+    /** Names of domains configured by each configuration file (key is absolute path - also used as lock for loading files) */
+    private final HashMap<String, Set<String>> configurationFiles = new HashMap<String, Set<String>>();
+
+    /** Names of domains configured by file that is currently loaded (null if no file is loaded) */
+    private Set<String> configuredNames;
+
+    /** Configurations before file that is currently loaded changed them - to restore them if loading fails (null if no file is loaded) */
+    private HashMap<String, LogDomainConfiguration> configurationBackup;
+
+    /** Nesting depth of configuration transactions (0 if there is no transaction) */
+    private int transactionDepth;
+
+    /** Rules for domains with names matching a pattern - in order of creation (see isRulePattern) */
+    private final CopyOnWriteArrayList<DomainRule> rules = new CopyOnWriteArrayList<DomainRule>();
+
+    /** Configuration with default settings */
+    private static final LogDomainConfiguration DEFAULT_CONFIGURATION = new LogDomainConfiguration("");
+
+    /** Incremented whenever a configuration is changed (so that domains created concurrently can detect that they missed the change) */
+    private final AtomicLong configurationRevision = new AtomicLong();
+
+    /**
+     * Upper bound of the max message levels of all enabled domains (ordinal).
+     * Messages with a higher level will not be output by any domain.
+     */
+    static volatile int maxMessageLevelBound = -1;
+
+    /** Number of domain configurations per bound level (see LogDomainConfiguration.boundLevel) */
+    private static final int[] configurationsPerBoundLevel = new int[LogLevel.DIMENSION.ordinal()];
 
     private static final LogDomainRegistry instance = new LogDomainRegistry();
 
-    /** Cache for package=>log domain lookup */
-    private static final ConcurrentHashMap<Package, LogDomain> domainForPackageLookup = new ConcurrentHashMap<Package, LogDomain>();
+    /**
+     * Rule for all domains with names matching a pattern
+     *
+     * The pattern is compiled to a regular expression once - it is only
+     * matched against domain names when domains are created or rules change.
+     */
+    static final class DomainRule {
+
+        /** Settings of this rule (name is the pattern - configuredSettings are the settings the rule sets) */
+        final LogDomainConfiguration configuration;
+
+        /** Compiled pattern */
+        private final Pattern regex;
+
+        DomainRule(String pattern) {
+            configuration = new LogDomainConfiguration(pattern);
+            StringBuilder sb = new StringBuilder();
+            int literalStart = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (i > literalStart) {
+                        sb.append(Pattern.quote(pattern.substring(literalStart, i)));
+                    }
+                    sb.append(c == '*' ? ".*" : ".");
+                    literalStart = i + 1;
+                }
+            }
+            if (literalStart < pattern.length()) {
+                sb.append(Pattern.quote(pattern.substring(literalStart)));
+            }
+            regex = Pattern.compile(sb.toString());
+        }
+
+        /**
+         * @param name Full qualified domain name
+         * @return Does domain name match this rule's pattern?
+         */
+        boolean matches(String name) {
+            return regex.matcher(name).matches();
+        }
+    }
+
+    /**
+     * Information on a class calling the static log methods
+     *
+     * Instances are attached to the class via ClassValue. As they do not
+     * reference the class, classes can still be unloaded.
+     */
+    static final class CallerClassInfo {
+
+        /** Log domain for the class's package */
+        final LogDomain domain;
+
+        /** Class name without package - used as origin if none is specified */
+        final String simpleName;
+
+        CallerClassInfo(Class<?> c) {
+            domain = getDomainByQualifiedName(c.getPackageName());
+            simpleName = c.getName().substring(c.getName().lastIndexOf('.') + 1);
+        }
+    }
+
+    /** Cache for class=>log domain lookup */
+    private static final ClassValue<CallerClassInfo> callerClassInfoLookup = new ClassValue<CallerClassInfo>() {
+        @Override
+        protected CallerClassInfo computeValue(Class<?> type) {
+            return new CallerClassInfo(type);
+        }
+    };
 
     /** Cache for qualified name=>log domain lookup */
     private static final ConcurrentHashMap<String, LogDomain> domainForQualifiedNameLookup = new ConcurrentHashMap<String, LogDomain>();
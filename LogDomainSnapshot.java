@@ -0,0 +1,158 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the effective configuration of a logging domain
+ *
+ * A domain publishes a new snapshot via a single volatile reference
+ * whenever its configuration changes. So a log call obtains a consistent
+ * view of all settings with one read - even if the configuration is
+ * changed by another thread at the same time.
+ *
+ * @author Max Reichardt
+ */
+final class LogDomainSnapshot {
+
+    /** Flags in bitfield */
+    static final int PRINT_TIME = 1, PRINT_NAME = 2, PRINT_LEVEL = 4, PRINT_LOCATION = 8, ASYNC_OUTPUT = 16;
+
+    /** Full qualified name of domain */
+    final String name;
+
+    /** Ordinal of max level of messages that are processed (-1 if domain is disabled) */
+    final int maxMessageLevel;
+
+    /** Ordinal of max level of messages that are written to sinks and binary output (may be lower than maxMessageLevel if flight recorder records more) */
+    final int sinkMaxMessageLevel;
+
+    /** Bitfield with flags (see constants above) */
+    final int flags;
+
+    /**
+     * Encoded output of domain name and level for each level (index is level's ordinal).
+     * Empty if neither name nor level are printed.
+     */
+    final byte[][] levelPrefixes = new byte[LogLevel.DIMENSION.ordinal()][];
+
+    /** Format for printing time */
+    final LogTimeFormat timeFormat;
+
+    /** Sinks that rendered messages are written to */
+    final LogSink[] sinks;
+
+    /** Writer for binary output (null if domain does not use binary output) */
+    final LogBinaryWriter binaryWriter;
+
+    /** Flight recorder (null if domain does not use it) */
+    final LogFlightRecorder flightRecorder;
+
+    /** Ordinal of max level of messages that are written to flight recorder */
+    final int flightRecorderMaxMessageLevel;
+
+    /** Rate limiter for messages (null if rate is not limited) */
+    final LogRateLimiter rateLimiter;
+
+    /** Time in ms after which repetitions of messages are reported (0 if repeated messages are not coalesced) */
+    final long coalesceTimeout;
+
+    /** Keep only every Nth message of each level (index is level's ordinal - null if no level is sampled) */
+    final int[] sampleEveryNth;
+
+    /** Keep messages of each level only with this probability (index is level's ordinal - null if no level is sampled) */
+    final double[] sampleProbability;
+
+    /**
+     * @param configuration Configuration to create snapshot of
+     * @param sinks Sinks that rendered messages are written to (resolved from configuration's stream mask)
+     * @param binaryWriter Writer for binary output (null if domain does not use binary output)
+     * @param flightRecorder Flight recorder (null if domain does not use it)
+     * @param rateLimiter Rate limiter for messages (null if rate is not limited)
+     */
+    LogDomainSnapshot(LogDomainConfiguration configuration, LogSink[] sinks, LogBinaryWriter binaryWriter, LogFlightRecorder flightRecorder, LogRateLimiter rateLimiter) {
+        name = configuration.name;
+        sinkMaxMessageLevel = configuration.enabled ? configuration.maxMessageLevel.ordinal() : -1;
+        flightRecorderMaxMessageLevel = (configuration.flightRecorderLevel == null || !configuration.enabled) ? sinkMaxMessageLevel : configuration.flightRecorderLevel.ordinal();
+        maxMessageLevel = flightRecorder != null ? Math.max(sinkMaxMessageLevel, flightRecorderMaxMessageLevel) : sinkMaxMessageLevel;
+        flags = (configuration.printTime ? PRINT_TIME : 0) | (configuration.printName ? PRINT_NAME : 0) | (configuration.printLevel ? PRINT_LEVEL : 0) |
+                (configuration.printLocation ? PRINT_LOCATION : 0) | (configuration.asyncOutput ? ASYNC_OUTPUT : 0);
+        timeFormat = configuration.timeFormat;
+        coalesceTimeout = configuration.coalesceTimeout;
+        if (configuration.sampleEveryNth != null || configuration.sampleProbability != null) {
+            sampleEveryNth = new int[LogLevel.DIMENSION.ordinal()];
+            sampleProbability = new double[LogLevel.DIMENSION.ordinal()];
+            Arrays.fill(sampleEveryNth, 1);
+            Arrays.fill(sampleProbability, 1);
+            if (configuration.sampleEveryNth != null) {
+                System.arraycopy(configuration.sampleEveryNth, 0, sampleEveryNth, 0, sampleEveryNth.length);
+            }
+            if (configuration.sampleProbability != null) {
+                System.arraycopy(configuration.sampleProbability, 0, sampleProbability, 0, sampleProbability.length);
+            }
+        } else {
+            sampleEveryNth = null;
+            sampleProbability = null;
+        }
+        for (LogLevel level : LogLevel.values()) {
+            if (level != LogLevel.DIMENSION) {
+                levelPrefixes[level.ordinal()] = encodeLevelPrefix(name, flags, level);
+            }
+        }
+        this.sinks = sinks;
+        this.binaryWriter = binaryWriter;
+        this.flightRecorder = flightRecorder;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * @param other Other snapshot
+     * @return Whether other snapshot has the same settings (and sinks) as this one
+     */
+    boolean hasSameSettings(LogDomainSnapshot other) {
+        return name.equals(other.name) && maxMessageLevel == other.maxMessageLevel && sinkMaxMessageLevel == other.sinkMaxMessageLevel && flags == other.flags && timeFormat == other.timeFormat && coalesceTimeout == other.coalesceTimeout &&
+               Arrays.equals(sampleEveryNth, other.sampleEveryNth) && Arrays.equals(sampleProbability, other.sampleProbability) &&
+               binaryWriter == other.binaryWriter && flightRecorder == other.flightRecorder &&
+               flightRecorderMaxMessageLevel == other.flightRecorderMaxMessageLevel && rateLimiter == other.rateLimiter && Arrays.equals(sinks, other.sinks);
+    }
+
+    /**
+     * Encodes output of domain name and level
+     *
+     * @param name Full qualified name of domain
+     * @param flags Bitfield with flags (see constants above)
+     * @param level Level of message
+     * @return Encoded output (empty if neither name nor level are printed)
+     */
+    static byte[] encodeLevelPrefix(String name, int flags, LogLevel level) {
+        return LogBuffer.encode(((flags & PRINT_NAME) != 0 ? ("[" + name + "] ") : "") + ((flags & PRINT_LEVEL) != 0 ? (LogDomain.getLevelString(level) + " ") : ""));
+    }
+
+    /**
+     * @param flag Flag to check (see constants above)
+     * @return Whether flag is set
+     */
+    boolean isSet(int flag) {
+        return (flags & flag) != 0;
+    }
+}
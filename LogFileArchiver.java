@@ -0,0 +1,164 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses rotated log file segments and removes old ones
+ *
+ * All work is done by a single low-priority background thread - so
+ * rolling log files does not delay logging threads.
+ *
+ * @author Max Reichardt
+ */
+class LogFileArchiver {
+
+    /** Thread that compresses and removes segments */
+    private static final ExecutorService archiver = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RRLib Logging Archiver");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Schedules compression of rotated segment and removal of old segments
+     *
+     * @param segment Rotated segment (is replaced with a .gz file)
+     * @param logFile Log file that segment was rotated from (segments are named <logFile>.<time>.gz)
+     * @param retentionCount Maximum number of compressed segments to keep (0 means no limit)
+     * @param maxAge Maximum age of compressed segments in ms (0 means no limit)
+     */
+    static void archive(Path segment, Path logFile, int retentionCount, long maxAge) {
+        archiver.execute(() -> {
+            try {
+                compress(segment);
+                removeOldSegments(logFile, retentionCount, maxAge);
+            } catch (Exception e) {
+                System.err.println("RRLib Logging >> Could not archive log file segment `" + segment + "': " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Compresses segment with gzip and deletes it afterwards
+     *
+     * @param segment Segment to compress
+     */
+    private static void compress(Path segment) throws IOException {
+        Path tempFile = segment.resolveSibling(segment.getFileName() + ".gz.tmp");
+        try (InputStream in = Files.newInputStream(segment); OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile), 65536)) {
+            byte[] buffer = new byte[65536];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+        }
+        Files.move(tempFile, segment.resolveSibling(segment.getFileName() + ".gz"), StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(segment);
+    }
+
+    /**
+     * Removes compressed segments that exceed retention count or age
+     *
+     * @param logFile Log file that segments were rotated from
+     * @param retentionCount Maximum number of compressed segments to keep (0 means no limit)
+     * @param maxAge Maximum age of compressed segments in ms (0 means no limit)
+     */
+    private static void removeOldSegments(Path logFile, int retentionCount, long maxAge) throws IOException {
+        if (retentionCount <= 0 && maxAge <= 0) {
+            return;
+        }
+        Path directory = logFile.toAbsolutePath().getParent();
+        ArrayList<Path> segments = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, logFile.getFileName() + ".*.gz")) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        String prefix = logFile.getFileName() + ".";
+        Collections.sort(segments, Comparator.comparingLong((Path segment) -> getSegmentTime(segment, prefix)).thenComparingInt(segment -> getSegmentCounter(segment, prefix)));
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            boolean tooMany = retentionCount > 0 && i < segments.size() - retentionCount;
+            boolean tooOld = maxAge > 0 && now - Files.getLastModifiedTime(segment).toMillis() > maxAge;
+            if (tooMany || tooOld) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    /**
+     * Segments are named <logFile>.<yyyyMMdd-HHmmss-SSS>[-<counter>].gz (see LogFileSink) -
+     * the counter distinguishes segments rotated in the same millisecond.
+     *
+     * @param segment Compressed segment
+     * @param prefix File name of log file followed by '.'
+     * @return Parts of segment name's time and counter (null if name has a different format)
+     */
+    private static String[] getSegmentNameParts(Path segment, String prefix) {
+        String name = segment.getFileName().toString();
+        String[] parts = name.substring(prefix.length(), name.length() - ".gz".length()).split("-");
+        if (parts.length < 3 || parts.length > 4 || parts[0].length() != 8 || parts[1].length() != 6 || parts[2].length() != 3 || (parts.length == 4 && parts[3].length() > 9)) {
+            return null;
+        }
+        for (String part : parts) {
+            if (part.isEmpty() || !part.chars().allMatch(Character::isDigit)) {
+                return null;
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * @param segment Compressed segment
+     * @param prefix File name of log file followed by '.'
+     * @return Time of rotation encoded as number that increases with time (0 if name has a different format)
+     */
+    private static long getSegmentTime(Path segment, String prefix) {
+        String[] parts = getSegmentNameParts(segment, prefix);
+        return parts != null ? Long.parseLong(parts[0] + parts[1] + parts[2]) : 0;
+    }
+
+    /**
+     * @param segment Compressed segment
+     * @param prefix File name of log file followed by '.'
+     * @return Counter of segments rotated in the same millisecond (0 for first segment)
+     */
+    private static int getSegmentCounter(Path segment, String prefix) {
+        String[] parts = getSegmentNameParts(segment, prefix);
+        return parts != null && parts.length == 4 ? Integer.parseInt(parts[3]) : 0;
+    }
+}
@@ -0,0 +1,86 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+/**
+ * Background thread that performs time-based flushing and syncing of file sinks
+ *
+ * The thread is started when the first sink with a time-based policy is
+ * configured. It sleeps until the next sink is due - or until a logging
+ * thread requests a sync.
+ *
+ * @author Max Reichardt
+ */
+class LogFileFlusher implements Runnable {
+
+    /** Flusher thread (null if not started yet) */
+    private static Thread thread;
+
+    /** Has flusher been woken up since it last checked the sinks? */
+    private static boolean wakeUpRequested;
+
+    /**
+     * @return Current time in ms for flush and sync policies (not affected by changes of system clock)
+     */
+    static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Makes flusher check all sinks immediately (starts flusher if required)
+     */
+    static synchronized void wakeUp() {
+        if (thread == null) {
+            thread = new Thread(new LogFileFlusher(), "RRLib Logging Flusher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        wakeUpRequested = true;
+        LogFileFlusher.class.notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            long now = now();
+            long due = Long.MAX_VALUE;
+            for (LogFileSink sink : LogFileSink.getOpenSinks()) {
+                due = Math.min(due, sink.backgroundFlush(now));
+            }
+            synchronized (LogFileFlusher.class) {
+                try {
+                    if (!wakeUpRequested) {
+                        long remaining = due - now();
+                        if (due == Long.MAX_VALUE) {
+                            LogFileFlusher.class.wait();
+                        } else if (remaining > 0) {
+                            LogFileFlusher.class.wait(remaining);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                wakeUpRequested = false;
+            }
+        }
+    }
+}
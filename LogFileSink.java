@@ -0,0 +1,413 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Sink that writes messages to a file
+ *
+ * Messages are collected in a reusable direct buffer that is written to
+ * the file channel when it is full (or according to the flush policy).
+ * Messages that do not fit into the buffer are written together with
+ * the buffered data in one gathering write.
+ *
+ * Optionally, the file is rolled over when it exceeds a certain size
+ * and/or in fixed time intervals. Rotated segments are compressed and
+ * removed in the background (see LogFileArchiver).
+ *
+ * Buffered messages can be flushed after a number of records, after some
+ * time and/or immediately for important messages. Written data can be
+ * forced to disk within a latency target. Time-based flushing and syncing
+ * is done by a background thread (see LogFileFlusher).
+ *
+ * @author Max Reichardt
+ */
+class LogFileSink extends LogSink {
+
+    /** Name of file */
+    private final String fileName;
+
+    /** Channel to write to */
+    private FileChannel channel;
+
+    /** Buffer for messages that have not been written to channel yet */
+    private final ByteBuffer buffer;
+
+    /** Flush buffer after this number of records (0 means only when buffer is full) */
+    private int flushRecords;
+
+    /** Number of records in buffer */
+    private int bufferedRecords;
+
+    /** Flush buffer at latest after this time in ms (0 means only when buffer is full) */
+    private long flushInterval;
+
+    /** Messages up to this level (ordinal) are flushed immediately (-1 means none) */
+    private int flushLevel = -1;
+
+    /** Force written data to disk at latest after this time in ms (0 means never) */
+    private long syncLatency;
+
+    /** Time (see LogFileFlusher.now()) when first record in buffer was added */
+    private long firstBufferedTime;
+
+    /** Number of bytes written to file(s) - including all rolled over segments */
+    private long writtenBytes;
+
+    /** Value of writtenBytes when last sync was started */
+    private long syncStartedBytes;
+
+    /** Time (see LogFileFlusher.now()) when first data was written after last sync was started */
+    private long firstUnsyncedTime;
+
+    /** Has a logging thread requested a sync (and is waiting for it)? */
+    private boolean syncRequested;
+
+    /** Value of writtenBytes that is known to be on disk (guarded by syncMonitor) */
+    private long syncedBytes;
+
+    /** Monitor for threads waiting for sync to complete */
+    private final Object syncMonitor = new Object();
+
+    /** Roll over when file would exceed this size in bytes (0 means no size limit) */
+    private long rolloverSize;
+
+    /** Roll over in this interval in ms (0 means no time-based rollover) */
+    private long rolloverInterval;
+
+    /** Maximum number of compressed segments to keep (0 means no limit) */
+    private int rolloverRetention;
+
+    /** Maximum age of compressed segments in ms (0 means no limit) */
+    private long rolloverMaxAge;
+
+    /** Size of current file including buffered data */
+    private long fileSize;
+
+    /** Time of next time-based rollover */
+    private long nextRolloverTime;
+
+    /** Reused array for gathering writes */
+    private final ByteBuffer[] gatheringWriteBuffers = new ByteBuffer[2];
+
+    /** All file sinks that were opened (flushed on shutdown) */
+    private static final CopyOnWriteArrayList<LogFileSink> openSinks = new CopyOnWriteArrayList<LogFileSink>();
+
+    /**
+     * Opens file for writing (truncates existing file)
+     *
+     * @param fileName Name of file
+     * @param configuration Configuration with buffer size, flush and rollover policy
+     */
+    LogFileSink(String fileName, LogDomainConfiguration configuration) throws IOException {
+        this.fileName = fileName;
+        channel = open();
+        buffer = ByteBuffer.allocateDirect(Math.max(configuration.fileBufferSize, 256));
+        openSinks.add(this);
+        configure(configuration);
+    }
+
+    /**
+     * Applies flush and rollover policy of configuration
+     * (buffer size is fixed when file is opened)
+     *
+     * @param configuration Domain configuration
+     */
+    synchronized void configure(LogDomainConfiguration configuration) {
+        flushRecords = configuration.fileFlushRecords;
+        flushInterval = configuration.fileFlushInterval;
+        flushLevel = configuration.fileFlushLevel != null ? configuration.fileFlushLevel.ordinal() : -1;
+        syncLatency = configuration.fileSyncLatency;
+        if (flushInterval > 0 || syncLatency > 0) {
+            LogFileFlusher.wakeUp();
+        }
+        if (rolloverInterval != configuration.rolloverInterval) {
+            rolloverInterval = configuration.rolloverInterval;
+            nextRolloverTime = rolloverInterval > 0 ? System.currentTimeMillis() + rolloverInterval : Long.MAX_VALUE;
+        }
+        rolloverSize = configuration.rolloverSize;
+        rolloverRetention = configuration.rolloverRetention;
+        rolloverMaxAge = configuration.rolloverMaxAge;
+    }
+
+    /**
+     * Opens file (truncates existing file)
+     *
+     * @return Channel to write to
+     */
+    private FileChannel open() throws IOException {
+        return FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    void write(LogLevel level, byte[] data, int offset, int length) {
+        long syncTarget;
+        synchronized (this) {
+            syncTarget = append(level, data, offset, length);
+        }
+        if (syncTarget > 0) {
+            awaitSync(syncTarget);
+        }
+    }
+
+    /**
+     * Appends message to buffer and writes buffer to file according to flush policy
+     *
+     * Only call with lock on sink
+     *
+     * @return Value of writtenBytes that must be synced before returning to caller (0 if caller need not wait)
+     */
+    private long append(LogLevel level, byte[] data, int offset, int length) {
+        try {
+            if ((rolloverSize > 0 && fileSize > 0 && fileSize + length > rolloverSize) || (rolloverInterval > 0 && System.currentTimeMillis() >= nextRolloverTime)) {
+                rollover();
+            }
+            fileSize += length;
+            if (length <= buffer.remaining()) {
+                buffer.put(data, offset, length);
+            } else if (length <= buffer.capacity() / 2) {
+                writeBuffer();
+                buffer.put(data, offset, length);
+            } else {
+                buffer.flip();
+                gatheringWriteBuffers[0] = buffer;
+                gatheringWriteBuffers[1] = ByteBuffer.wrap(data, offset, length);
+                long written = buffer.remaining() + length;
+                while (gatheringWriteBuffers[1].hasRemaining()) {
+                    channel.write(gatheringWriteBuffers);
+                }
+                gatheringWriteBuffers[1] = null;
+                buffer.clear();
+                bufferedRecords = 0;
+                wrote(written);
+                return flushNow(level);
+            }
+            if (bufferedRecords == 0 && flushInterval > 0) {
+                firstBufferedTime = LogFileFlusher.now();
+            }
+            bufferedRecords++;
+            if (level.ordinal() <= flushLevel || (flushRecords > 0 && bufferedRecords >= flushRecords)) {
+                writeBuffer();
+            }
+            return flushNow(level);
+        } catch (IOException e) {
+            buffer.clear();
+            bufferedRecords = 0;
+            System.err.println("RRLib Logging >> Could not write to file `" + fileName + "': " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Requests sync for messages that are flushed immediately (if syncing is enabled)
+     *
+     * Only call with lock on sink - after message has been written
+     *
+     * @param level Level of message
+     * @return Value of writtenBytes that must be synced before returning to caller (0 if caller need not wait)
+     */
+    private long flushNow(LogLevel level) {
+        if (syncLatency > 0 && level.ordinal() <= flushLevel) {
+            syncRequested = true;
+            return writtenBytes;
+        }
+        return 0;
+    }
+
+    /**
+     * Waits until data up to the specified position has been forced to disk
+     *
+     * @param target Value of writtenBytes to wait for
+     */
+    private void awaitSync(long target) {
+        LogFileFlusher.wakeUp();
+        synchronized (syncMonitor) {
+            while (syncedBytes < target) {
+                try {
+                    syncMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes current file, renames it to <file name>.<time> and starts a new one
+     *
+     * The renamed segment is compressed in the background.
+     */
+    private void rollover() throws IOException {
+        writeBuffer();
+        if (syncLatency > 0) {
+            syncStartedBytes = writtenBytes;
+            sync(channel, writtenBytes);
+        }
+        channel.close();
+        Path file = Paths.get(fileName);
+        String segmentName = fileName + "." + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        Path segment = Paths.get(segmentName);
+        for (int i = 1; Files.exists(segment) || Files.exists(Paths.get(segment + ".gz")); i++) {
+            segment = Paths.get(segmentName + "-" + i);
+        }
+        Files.move(file, segment);
+        channel = open();
+        fileSize = 0;
+        if (rolloverInterval > 0) {
+            nextRolloverTime = System.currentTimeMillis() + rolloverInterval;
+        }
+        LogFileArchiver.archive(segment, file, rolloverRetention, rolloverMaxAge);
+    }
+
+    /**
+     * Writes content of buffer to channel
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        long written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        bufferedRecords = 0;
+        wrote(written);
+    }
+
+    /**
+     * Updates counters after data has been written to channel
+     *
+     * @param bytes Number of bytes written
+     */
+    private void wrote(long bytes) {
+        if (bytes > 0) {
+            if (syncLatency > 0 && writtenBytes == syncStartedBytes) {
+                firstUnsyncedTime = LogFileFlusher.now();
+            }
+            writtenBytes += bytes;
+        }
+    }
+
+    /**
+     * Forces data written to channel to disk and notifies waiting threads
+     *
+     * @param channel Channel to force
+     * @param target Value of writtenBytes that is on disk after sync
+     */
+    private void sync(FileChannel channel, long target) {
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // file was rolled over - it was synced before it was closed
+        } catch (IOException e) {
+            System.err.println("RRLib Logging >> Could not sync file `" + fileName + "': " + e.getMessage());
+        }
+        synchronized (syncMonitor) {
+            syncedBytes = Math.max(syncedBytes, target);
+            syncMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Performs time-based flushing and syncing
+     *
+     * Called by flusher thread. The sync is performed without lock on
+     * sink - so logging threads are not blocked while it is in progress.
+     *
+     * @param now Current time (see LogFileFlusher.now())
+     * @return Time when this method needs to be called again (Long.MAX_VALUE if sink has no time-based policy)
+     */
+    long backgroundFlush(long now) {
+        long due = Long.MAX_VALUE;
+        FileChannel syncChannel = null;
+        long syncTarget = 0;
+        synchronized (this) {
+            if (flushInterval > 0) {
+                if (bufferedRecords > 0 && now - firstBufferedTime >= flushInterval) {
+                    try {
+                        writeBuffer();
+                    } catch (IOException e) {
+                        buffer.clear();
+                        bufferedRecords = 0;
+                        System.err.println("RRLib Logging >> Could not write to file `" + fileName + "': " + e.getMessage());
+                    }
+                }
+                due = (bufferedRecords > 0 ? firstBufferedTime : now) + flushInterval;
+            }
+            if (syncLatency > 0) {
+                if (writtenBytes > syncStartedBytes && (syncRequested || now - firstUnsyncedTime >= syncLatency)) {
+                    syncChannel = channel;
+                    syncTarget = writtenBytes;
+                    syncStartedBytes = writtenBytes;
+                    syncRequested = false;
+                }
+                due = Math.min(due, (writtenBytes > syncStartedBytes ? firstUnsyncedTime : now) + syncLatency);
+            }
+        }
+        if (syncChannel != null) {
+            sync(syncChannel, syncTarget);
+        }
+        return due;
+    }
+
+    @Override
+    synchronized void flush() {
+        try {
+            writeBuffer();
+            if (syncLatency > 0) {
+                syncStartedBytes = writtenBytes;
+                sync(channel, writtenBytes);
+            }
+        } catch (IOException e) {
+            buffer.clear();
+            System.err.println("RRLib Logging >> Could not write to file `" + fileName + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return All file sinks that were opened
+     */
+    static List<LogFileSink> getOpenSinks() {
+        return openSinks;
+    }
+
+    /**
+     * Flushes all file sinks that were opened (and forces them to disk if syncing is enabled)
+     */
+    static void flushAll() {
+        for (LogFileSink sink : openSinks) {
+            sink.flush();
+        }
+    }
+}
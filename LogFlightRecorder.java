@@ -0,0 +1,303 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Sink that keeps the most recent messages of all domains in memory
+ *
+ * Messages are copied to a circular buffer outside of the Java heap -
+ * without allocating any objects. If the buffer (or the maximum number of
+ * records) is full, the oldest messages are discarded.
+ * The buffer's content is dumped to a file (<prefix>.flight_recorder.<time>.log)
+ * when a domain that uses this sink outputs an error message (at most every
+ * MIN_ERROR_DUMP_INTERVAL), when LogDomainRegistry.dumpFlightRecorder() is
+ * called - or when a signal is received (see dumpOnSignal()).
+ * Dumps triggered by error messages are written by a background thread
+ * (see LogReporter) - so the logging thread only requests them. While a
+ * file is written, messages are recorded as usual.
+ * So domains can record verbose messages (see
+ * LogDomainRegistry.setDomainFlightRecorderLevel) without writing them to
+ * disk continuously.
+ *
+ * Each record in the buffer consists of its length (4 bytes) and the
+ * rendered message (without control sequences for colored output).
+ *
+ * @author Max Reichardt
+ */
+final class LogFlightRecorder extends LogSink {
+
+    /** Default size of buffer in bytes */
+    static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+    /** Minimum time between two dumps triggered by error messages (in ms) */
+    static final long MIN_ERROR_DUMP_INTERVAL = 10000;
+
+    /** Size of length field of each record */
+    private static final int HEADER_SIZE = 4;
+
+    /** Flight recorder shared by all domains (null if not created yet) */
+    private static LogFlightRecorder instance;
+
+    /** Circular buffer (off-heap) */
+    private ByteBuffer ring;
+
+    /** Size of circular buffer in bytes */
+    private int capacity;
+
+    /** Maximum number of records kept (0 means no limit) */
+    private int maxRecords;
+
+    /** Total number of bytes written to buffer - and position of oldest record (buffer index is position modulo capacity) */
+    private long head, tail;
+
+    /** Number of records in buffer */
+    private int records;
+
+    /** Time of last dump triggered by error message (from System.currentTimeMillis()) */
+    private long lastErrorDump = Long.MIN_VALUE / 2;
+
+    /** Reason of dump that background thread is to write (null if no dump was requested) */
+    private String requestedDump;
+
+    /**
+     * @param capacity Size of buffer in bytes
+     * @param maxRecords Maximum number of records kept (0 means no limit)
+     */
+    private LogFlightRecorder(int capacity, int maxRecords) {
+        configure(capacity, maxRecords);
+    }
+
+    /**
+     * @return Flight recorder shared by all domains (created on first call)
+     */
+    static synchronized LogFlightRecorder getInstance() {
+        if (instance == null) {
+            instance = new LogFlightRecorder(DEFAULT_CAPACITY, 0);
+        }
+        return instance;
+    }
+
+    /**
+     * @return Flight recorder shared by all domains (null if no domain has used it yet)
+     */
+    static synchronized LogFlightRecorder getInstanceIfCreated() {
+        return instance;
+    }
+
+    /**
+     * Sets size of flight recorder
+     *
+     * If capacity changes, the recorded messages are discarded.
+     *
+     * @param capacity Size of buffer in bytes
+     * @param maxRecords Maximum number of records kept (0 means no limit)
+     */
+    synchronized void configure(int capacity, int maxRecords) {
+        if (capacity < 1024) {
+            throw new IllegalArgumentException("Flight recorder capacity must be at least 1024 bytes");
+        }
+        if (capacity != this.capacity) {
+            ring = ByteBuffer.allocateDirect(capacity);
+            this.capacity = capacity;
+            head = 0;
+            tail = 0;
+            records = 0;
+        }
+        this.maxRecords = maxRecords;
+        while (maxRecords > 0 && records > maxRecords) {
+            discardOldestRecord();
+        }
+    }
+
+    @Override
+    synchronized void write(LogLevel level, byte[] data, int offset, int length) {
+        if (length + HEADER_SIZE > capacity) {
+            // only keep end of message
+            offset += length + HEADER_SIZE - capacity;
+            length = capacity - HEADER_SIZE;
+        }
+        while (head - tail + length + HEADER_SIZE > capacity || (maxRecords > 0 && records >= maxRecords)) {
+            discardOldestRecord();
+        }
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            ring.put((int)((head + i) % capacity), (byte)(length >>> (8 * i)));
+        }
+        int index = (int)((head + HEADER_SIZE) % capacity);
+        int firstPart = Math.min(length, capacity - index);
+        ring.position(index);
+        ring.put(data, offset, firstPart);
+        if (firstPart < length) {
+            ring.position(0);
+            ring.put(data, offset + firstPart, length - firstPart);
+        }
+        head += length + HEADER_SIZE;
+        records++;
+
+        if (level == LogLevel.ERROR) {
+            long now = System.currentTimeMillis();
+            if (now - lastErrorDump >= MIN_ERROR_DUMP_INTERVAL) {
+                lastErrorDump = now;
+                requestedDump = "error message";
+                LogReporter.wakeUp();
+            }
+        }
+    }
+
+    /**
+     * @param position Position of record (total bytes written before it)
+     * @return Length of record's message
+     */
+    private int getLength(long position) {
+        int length = 0;
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            length |= (ring.get((int)((position + i) % capacity)) & 0xFF) << (8 * i);
+        }
+        return length;
+    }
+
+    /**
+     * Removes oldest record from buffer
+     */
+    private void discardOldestRecord() {
+        tail += getLength(tail) + HEADER_SIZE;
+        records--;
+    }
+
+    /**
+     * Writes dump requested by an error message (if there is one)
+     *
+     * Called by background thread - and on shutdown.
+     */
+    static void dumpIfRequested() {
+        LogFlightRecorder recorder = getInstanceIfCreated();
+        if (recorder == null) {
+            return;
+        }
+        String reason;
+        synchronized (recorder) {
+            reason = recorder.requestedDump;
+            recorder.requestedDump = null;
+        }
+        if (reason != null) {
+            recorder.dump(reason);
+        }
+    }
+
+    /**
+     * Writes all messages in buffer to a new file (oldest first)
+     *
+     * Messages are kept in buffer. They are copied to the heap first - so
+     * the buffer is only locked during the copy, not while writing the file.
+     *
+     * @param reason Reason for dump (is written to first line of file)
+     * @return Name of file - or null if it could not be written
+     */
+    String dump(String reason) {
+        byte[] messages;
+        int messageCount;
+        synchronized (this) {
+            messages = new byte[(int)(head - tail) - records * HEADER_SIZE];
+            messageCount = records;
+            int messagesLength = 0;
+            for (long position = tail; position < head;) {
+                int length = getLength(position);
+                position += HEADER_SIZE;
+                int index = (int)(position % capacity);
+                int firstPart = Math.min(length, capacity - index);
+                ring.position(index);
+                ring.get(messages, messagesLength, firstPart);
+                if (firstPart < length) {
+                    ring.position(0);
+                    ring.get(messages, messagesLength + firstPart, length - firstPart);
+                }
+                messagesLength += length;
+                position += length;
+            }
+        }
+
+        String fileNamePrefix = LogDomainRegistry.getInstance().getOutputFileNamePrefix();
+        if (fileNamePrefix == null || fileNamePrefix.length() == 0) {
+            fileNamePrefix = "rrlib_logging";
+        }
+        String baseName = fileNamePrefix + ".flight_recorder." + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        String fileName = baseName + ".log";
+        for (int i = 1; Files.exists(Paths.get(fileName)); i++) {
+            fileName = baseName + "-" + i + ".log";
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), 65536)) {
+            out.write(LogBuffer.encode("RRLib Logging flight recorder dump (" + reason + ") - " + messageCount + " messages\n"));
+            out.write(messages);
+        } catch (IOException e) {
+            System.err.println("RRLib Logging >> Could not write flight recorder dump to `" + fileName + "': " + e.getMessage());
+            return null;
+        }
+        return fileName;
+    }
+
+    /**
+     * Dumps flight recorder whenever the specified signal is received
+     *
+     * Uses sun.misc.Signal via reflection - as it is not available on all
+     * platforms.
+     *
+     * @param signalName Name of signal (e.g. "USR2")
+     * @return Whether handler could be installed
+     */
+    static boolean dumpOnSignal(String signalName) {
+        try {
+            Class<?> signalClass = Class.forName("sun.misc.Signal");
+            Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+            Object signal = signalClass.getConstructor(String.class).newInstance(signalName);
+            Object handler = Proxy.newProxyInstance(LogFlightRecorder.class.getClassLoader(), new Class<?>[] {handlerClass}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "handle":
+                    getInstance().dump("signal " + signalName);
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return "RRLib Logging flight recorder signal handler";
+                }
+            });
+            Method handle = signalClass.getMethod("handle", signalClass, handlerClass);
+            handle.invoke(null, signal, handler);
+            return true;
+        } catch (Exception e) {
+            System.err.println("RRLib Logging >> Could not install handler for signal " + signalName + ": " + e);
+            return false;
+        }
+    }
+}
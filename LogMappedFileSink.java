@@ -0,0 +1,235 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sink that appends messages to a memory-mapped file
+ *
+ * The file is mapped in chunks of fixed size. When half of the current
+ * chunk is used, the next chunk is mapped by a background thread - so
+ * logging threads do not perform any system calls when writing.
+ * As data is written directly to the page cache, it is preserved
+ * even if the JVM crashes. In this case, the file ends with the unused
+ * (zero-filled) rest of the last chunk. On normal shutdown, the file is
+ * truncated to the written data.
+ * If writing fails (e.g. because a chunk cannot be mapped), the file is
+ * mapped again at the current position - at most every RETRY_INTERVAL.
+ * Messages that are dropped until then are counted and reported.
+ *
+ * @author Max Reichardt
+ */
+class LogMappedFileSink extends LogSink {
+
+    /** Size of mapped chunks */
+    static final int CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /** Minimum time between two attempts to map the file again after writing failed (in ms) */
+    static final long RETRY_INTERVAL = 1000;
+
+    /** Name of file */
+    private final String fileName;
+
+    /** Channel to map file from */
+    private final FileChannel channel;
+
+    /** Currently mapped chunk (null if writing failed or sink is closed) */
+    private MappedByteBuffer chunk;
+
+    /** File position of current chunk */
+    private long chunkPosition;
+
+    /** Next chunk - mapped ahead of time by background thread (null if mapping has not been requested yet) */
+    private CompletableFuture<MappedByteBuffer> nextChunk;
+
+    /** Number of messages dropped since writing failed */
+    private long lostMessages;
+
+    /** Time at which file may be mapped again after writing failed (see LogFileFlusher.now()) */
+    private long retryTime;
+
+    /** Set when file has been closed */
+    private boolean closed;
+
+    /** All mapped file sinks that were opened (closed on shutdown) */
+    private static final CopyOnWriteArrayList<LogMappedFileSink> openSinks = new CopyOnWriteArrayList<LogMappedFileSink>();
+
+    /** Thread that maps chunks ahead of time */
+    private static final ExecutorService mapper = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RRLib Logging Mapper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Opens file for writing (truncates existing file)
+     *
+     * @param fileName Name of file
+     */
+    LogMappedFileSink(String fileName) throws IOException {
+        this.fileName = fileName;
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        chunk = map(0);
+        openSinks.add(this);
+    }
+
+    /**
+     * Maps chunk of file (the file is extended if necessary)
+     *
+     * @param position File position of chunk
+     * @return Mapped chunk
+     */
+    private MappedByteBuffer map(long position) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, position, CHUNK_SIZE);
+    }
+
+    @Override
+    synchronized void write(LogLevel level, byte[] data, int offset, int length) {
+        if (chunk == null && !remap()) {
+            lostMessages++;
+            return;
+        }
+        try {
+            while (length > chunk.remaining()) {
+                int part = chunk.remaining();
+                chunk.put(data, offset, part);
+                offset += part;
+                length -= part;
+                switchToNextChunk();
+            }
+            chunk.put(data, offset, length);
+            if (nextChunk == null && chunk.position() >= CHUNK_SIZE / 2) {
+                final long position = chunkPosition + CHUNK_SIZE;
+                nextChunk = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return map(position);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }, mapper);
+            }
+        } catch (Exception | InternalError e) {
+            // InternalError is thrown if a mapped page cannot be written (e.g. if the disk is full)
+            chunkPosition += chunk.position();
+            chunk = null;
+            nextChunk = null;
+            lostMessages++;
+            retryTime = LogFileFlusher.now() + RETRY_INTERVAL;
+            System.err.println("RRLib Logging >> Could not write to memory-mapped file `" + fileName + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Maps file again at current position after writing failed
+     *
+     * @return Whether file could be mapped (false if it was already tried within the last RETRY_INTERVAL)
+     */
+    private boolean remap() {
+        if (closed || LogFileFlusher.now() - retryTime < 0) {
+            return false;
+        }
+        try {
+            chunk = map(chunkPosition);
+        } catch (Exception e) {
+            retryTime = LogFileFlusher.now() + RETRY_INTERVAL;
+            return false;
+        }
+        reportLostMessages();
+        return true;
+    }
+
+    /**
+     * Reports messages that were dropped since writing failed
+     */
+    private void reportLostMessages() {
+        if (lostMessages > 0) {
+            System.err.println("RRLib Logging >> Lost " + lostMessages + " messages that could not be written to memory-mapped file `" + fileName + "'");
+            lostMessages = 0;
+        }
+    }
+
+    /**
+     * Continues with next chunk (waits for its mapping if it has not been completed yet)
+     */
+    private void switchToNextChunk() throws IOException {
+        MappedByteBuffer next = nextChunk != null ? nextChunk.join() : map(chunkPosition + CHUNK_SIZE);
+        nextChunk = null;
+        chunk = next;
+        chunkPosition += CHUNK_SIZE;
+    }
+
+    @Override
+    synchronized void flush() {
+        if (chunk != null) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Truncates file to written data and closes it
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        reportLostMessages();
+        try {
+            long size = chunkPosition;
+            if (chunk != null) {
+                size += chunk.position();
+                chunk.force();
+                chunk = null;
+            }
+            if (nextChunk != null) {
+                try {
+                    nextChunk.join();
+                } catch (Exception e) {
+                    // chunk was not mapped - nothing to wait for
+                }
+                nextChunk = null;
+            }
+            channel.truncate(size);
+            channel.close();
+        } catch (Exception e) {
+            System.err.println("RRLib Logging >> Could not close memory-mapped file `" + fileName + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Closes all mapped file sinks that were opened
+     */
+    static void closeAll() {
+        for (LogMappedFileSink sink : openSinks) {
+            sink.close();
+        }
+    }
+}
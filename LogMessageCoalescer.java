@@ -0,0 +1,180 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Coalesces repeated messages of a domain
+ *
+ * Each record is compared to the previous record of the same domain:
+ * If level, call site, caller description and message text are identical,
+ * the record is not output - it is only counted. A line "last message
+ * repeated N times" is output when a different record arrives - or when
+ * the domain's coalesce timeout has passed since the first repetition
+ * (by the background thread - see LogReporter).
+ *
+ * Created on demand by domains that coalesce repeated messages.
+ * Except where noted, methods may only be called with lock on domain.
+ *
+ * @author Max Reichardt
+ */
+final class LogMessageCoalescer {
+
+    /** Coalescers with repetitions that have not been reported yet (also used as lock for this list) */
+    private static final ArrayList<LogMessageCoalescer> pending = new ArrayList<LogMessageCoalescer>();
+
+    /** Domain whose messages are coalesced */
+    private final LogDomain domain;
+
+    /** Previous record (level is null if there is no record that can be repeated) */
+    private LogLevel level;
+    private String file, function, description;
+    private int line;
+    private final LogBuffer message = new LogBuffer(128);
+    private int messageHash;
+
+    /** Snapshot that was used for previous record */
+    private LogDomainSnapshot snapshot;
+
+    /** Number of repetitions of previous record that have not been reported yet */
+    private long repeated;
+
+    /** Time at which first of these repetitions occurred (obtained from LogFileFlusher.now()) */
+    private long firstRepeated;
+
+    /**
+     * @param domain Domain whose messages are coalesced
+     */
+    LogMessageCoalescer(LogDomain domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * Checks whether record repeats the previous one
+     *
+     * If it does, it is counted. Otherwise, pending repetitions of the
+     * previous record are reported - and the record becomes the one that
+     * following records are compared to.
+     *
+     * @param snapshot      Snapshot of configuration used for record
+     * @param level         The log level of the message
+     * @param file          The file that contains the message
+     * @param line          The line that contains the message
+     * @param function      The name of the function that contains the message
+     * @param description   Description of calling object or context
+     * @param message       Message text
+     * @param exception     Exception whose stack trace is printed after message (records with exceptions are never coalesced)
+     * @return True if record is a repetition (and must not be output)
+     */
+    boolean coalesce(LogDomainSnapshot snapshot, LogLevel level, String file, int line, String function, String description, LogBuffer message, Throwable exception) {
+        int hash = hash(message);
+        if (exception == null && level == this.level && hash == messageHash && line == this.line && snapshot == this.snapshot &&
+                Arrays.equals(message.array(), 0, message.length(), this.message.array(), 0, this.message.length()) &&
+                description.equals(this.description) && (file == null ? this.file == null : file.equals(this.file)) && function.equals(this.function)) {
+            if (repeated++ == 0) {
+                firstRepeated = LogFileFlusher.now();
+                synchronized (pending) {
+                    if (!pending.contains(this)) {
+                        pending.add(this);
+                    }
+                }
+                LogReporter.wakeUp();
+            }
+            return true;
+        }
+
+        reportRepeated();
+        if (exception == null) {
+            this.level = level;
+            this.file = file;
+            this.line = line;
+            this.function = function;
+            this.description = description;
+            this.message.clear();
+            this.message.append(message);
+            this.messageHash = hash;
+            this.snapshot = snapshot;
+        } else {
+            this.level = null;
+        }
+        return false;
+    }
+
+    /**
+     * Outputs line with number of pending repetitions (if there are any)
+     */
+    void reportRepeated() {
+        if (repeated > 0) {
+            domain.outputLine(snapshot, level, file, line, function, description, repeated == 1 ? "last message repeated 1 time" : ("last message repeated " + repeated + " times"));
+            repeated = 0;
+        }
+    }
+
+    /**
+     * @param message Message text
+     * @return Hash of message text
+     */
+    private static int hash(LogBuffer message) {
+        byte[] data = message.array();
+        int hash = 1;
+        for (int i = 0, n = message.length(); i < n; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Reports repetitions of all coalescers whose timeout has passed
+     *
+     * Called by background thread (without lock on any domain).
+     *
+     * @param now Current time (obtained from LogFileFlusher.now())
+     * @param all Report all pending repetitions - also if they are not due yet (e.g. on shutdown)?
+     * @return Time at which this method needs to be called again (Long.MAX_VALUE if there are no pending repetitions left)
+     */
+    static long reportAllRepeated(long now, boolean all) {
+        LogMessageCoalescer[] coalescers;
+        synchronized (pending) {
+            coalescers = pending.toArray(new LogMessageCoalescer[0]);
+        }
+        long due = Long.MAX_VALUE;
+        for (LogMessageCoalescer coalescer : coalescers) {
+            synchronized (coalescer.domain) {
+                if (coalescer.repeated > 0) {
+                    long timeout = coalescer.domain.getCoalesceTimeout();
+                    if (all || now - coalescer.firstRepeated >= timeout) {
+                        coalescer.reportRepeated();
+                    } else {
+                        due = Math.min(due, coalescer.firstRepeated + timeout);
+                        continue;
+                    }
+                }
+                synchronized (pending) {
+                    pending.remove(coalescer);
+                }
+            }
+        }
+        return due;
+    }
+}
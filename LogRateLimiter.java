@@ -0,0 +1,370 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * Limits the rate of messages that a domain outputs
+ *
+ * Each call site (file and line) or the whole domain has a token bucket:
+ * messages are output at most at the configured rate - with bursts of the
+ * configured size. Further messages are dropped before they are formatted.
+ * Dropped messages are only counted. A summary line is output for each
+ * bucket at most every SUMMARY_INTERVAL by the background thread (see
+ * LogReporter).
+ *
+ * The number of call sites with their own bucket is bounded: if
+ * MAX_CALL_SITES is reached, idle buckets are removed. If all of them are
+ * in use, further call sites share one bucket.
+ * Buckets of call sites are found via file and line in a hash table
+ * without creating any objects - so dropping messages does not allocate.
+ *
+ * Rate limiters are part of a domain's snapshot. They are reused by new
+ * snapshots as long as their settings do not change.
+ *
+ * @author Max Reichardt
+ */
+final class LogRateLimiter {
+
+    /** Minimum time between two summaries for the same bucket (in ms) */
+    static final long SUMMARY_INTERVAL = 5000;
+
+    /** Maximum number of call sites with their own bucket */
+    static final int MAX_CALL_SITES = 1024;
+
+    /** Size of hash table with buckets of call sites (power of two - at most half of it is used) */
+    private static final int CALL_SITE_TABLE_SIZE = 2 * MAX_CALL_SITES;
+
+    /** Rate limiters with suppressed messages that have not been reported yet */
+    private static final ArrayList<LogRateLimiter> pending = new ArrayList<LogRateLimiter>();
+
+    /** Domain whose messages are limited */
+    private final LogDomain domain;
+
+    /** Maximum number of messages per second */
+    final double rate;
+
+    /** Number of messages that may be output at once (bucket size) */
+    final int burst;
+
+    /** Ordinal of most severe level that is limited (messages with more severe levels are never dropped) */
+    final int level;
+
+    /** Is there a token bucket for each call site? (otherwise there is one for the whole domain) */
+    final boolean perCallSite;
+
+    /** Time in ns that one message costs (emission interval) */
+    private final long interval;
+
+    /** Time in ns that messages may get ahead of the rate (bucket size) */
+    private final long tolerance;
+
+    /**
+     * Token buckets of call sites - hash table with linear probing (null if there is one bucket for the whole domain).
+     * Slots are only added with lock on this rate limiter. When idle slots are removed, the table is replaced.
+     */
+    private volatile Slot[] callSiteSlots;
+
+    /** Number of slots in callSiteSlots (only accessed with lock on this rate limiter) */
+    private int callSiteCount;
+
+    /** Token bucket for the whole domain - or for call sites that exceed MAX_CALL_SITES */
+    private final Slot sharedSlot = new Slot(null, 0);
+
+    /** Token bucket with count of suppressed messages (non-final fields only accessed with lock on slot) */
+    private static final class Slot {
+
+        /** Call site that this bucket belongs to (key in callSiteSlots) */
+        final String callSiteFile;
+        final int callSiteLine;
+
+        /** Set when slot was removed from callSiteSlots (users need to look up the call site again) */
+        boolean removed;
+
+        /** Time in ns at which the bucket will be full again (theoretical arrival time in GCRA terms) */
+        long fullTime = Long.MIN_VALUE;
+
+        /** Number of messages suppressed since last summary */
+        long suppressed;
+
+        /** Time in ms at which first of these messages was suppressed */
+        long firstSuppressed;
+
+        /** Data of (first) call site with suppressed messages - for summary */
+        String file, function, description;
+        int line;
+        LogLevel level;
+
+        Slot(String callSiteFile, int callSiteLine) {
+            this.callSiteFile = callSiteFile;
+            this.callSiteLine = callSiteLine;
+        }
+    }
+
+    /**
+     * @param domain Domain whose messages are limited
+     * @param rate Maximum number of messages per second
+     * @param burst Number of messages that may be output at once (0 means as many as in one second)
+     * @param level Most severe level that is limited
+     * @param perCallSite Is there a token bucket for each call site? (otherwise there is one for the whole domain)
+     */
+    LogRateLimiter(LogDomain domain, double rate, int burst, LogLevel level, boolean perCallSite) {
+        this.domain = domain;
+        this.rate = rate;
+        this.burst = burst;
+        this.level = level.ordinal();
+        this.perCallSite = perCallSite;
+        interval = Math.max(1, (long)(1000000000L / rate));
+        tolerance = interval * (Math.max(1, burst > 0 ? burst : (int)Math.ceil(rate)) - 1);
+        callSiteSlots = perCallSite ? new Slot[CALL_SITE_TABLE_SIZE] : null;
+    }
+
+    /**
+     * @return Whether this rate limiter has the specified settings
+     */
+    boolean hasSettings(double rate, int burst, LogLevel level, boolean perCallSite) {
+        return this.rate == rate && this.burst == burst && this.level == level.ordinal() && this.perCallSite == perCallSite;
+    }
+
+    /**
+     * Takes a token for a message - or counts it as suppressed if there is none
+     *
+     * @param level Level of message
+     * @param file File that contains the message
+     * @param line Line that contains the message
+     * @param function Function that contains the message
+     * @param callerDescription Description of calling object or context
+     * @return True if message may be output - false if it is to be dropped
+     */
+    boolean acquire(LogLevel level, String file, int line, String function, Object callerDescription) {
+        if (level.ordinal() < this.level) {
+            return true;
+        }
+        long now = System.nanoTime();
+        Slot slot = perCallSite ? getCallSiteSlot(file, line, now) : sharedSlot;
+        while (true) {
+            synchronized (slot) {
+                if (!slot.removed) {
+                    long fullTime = Math.max(slot.fullTime, now);
+                    if (fullTime - now <= tolerance) {
+                        slot.fullTime = fullTime + interval;
+                        return true;
+                    }
+                    if (slot.suppressed++ > 0) {
+                        return false;
+                    }
+                    slot.firstSuppressed = LogFileFlusher.now();
+                    slot.file = file;
+                    slot.line = line;
+                    slot.function = function;
+                    slot.description = String.valueOf(callerDescription);
+                    slot.level = level;
+                    break;
+                }
+            }
+            // removed concurrently as idle - look up call site in new table
+            slot = addCallSiteSlot(file, line, now);
+        }
+        synchronized (pending) {
+            if (!pending.contains(this)) {
+                pending.add(this);
+            }
+        }
+        LogReporter.wakeUp();
+        return false;
+    }
+
+    /**
+     * @param file File that contains the message
+     * @param line Line that contains the message
+     * @param now Current time in ns
+     * @return Token bucket for the specified call site (shared bucket if there are too many call sites)
+     */
+    private Slot getCallSiteSlot(String file, int line, long now) {
+        Slot[] table = callSiteSlots;
+        Slot slot = table[findCallSite(table, file, line)];
+        return slot != null ? slot : addCallSiteSlot(file, line, now);
+    }
+
+    /**
+     * Adds token bucket for call site (if it has not been added concurrently)
+     *
+     * (parameters and result as in getCallSiteSlot)
+     */
+    private synchronized Slot addCallSiteSlot(String file, int line, long now) {
+        Slot[] table = callSiteSlots;
+        int index = findCallSite(table, file, line);
+        if (table[index] != null) {
+            return table[index];
+        }
+        if (callSiteCount >= MAX_CALL_SITES) {
+            // remove buckets that are full again and have nothing to report - they are equivalent to new ones
+            Slot[] newTable = new Slot[CALL_SITE_TABLE_SIZE];
+            int count = 0;
+            for (Slot candidate : table) {
+                if (candidate == null) {
+                    continue;
+                }
+                synchronized (candidate) {
+                    if (candidate.suppressed == 0 && candidate.fullTime - now <= 0) {
+                        candidate.removed = true;
+                        continue;
+                    }
+                }
+                newTable[findCallSite(newTable, candidate.callSiteFile, candidate.callSiteLine)] = candidate;
+                count++;
+            }
+            if (count == callSiteCount) {
+                return sharedSlot;
+            }
+            table = newTable;
+            callSiteCount = count;
+            index = findCallSite(table, file, line);
+        }
+        table[index] = new Slot(file, line);
+        callSiteCount++;
+        callSiteSlots = table;
+        return table[index];
+    }
+
+    /**
+     * @param table Hash table with token buckets of call sites
+     * @param file File that contains the message
+     * @param line Line that contains the message
+     * @return Index of call site's bucket in table - or of the free entry where it is to be added
+     */
+    private static int findCallSite(Slot[] table, String file, int line) {
+        int hash = (file != null ? file.hashCode() * 31 : 0) + line;
+        int index = (hash ^ (hash >>> 16)) & (CALL_SITE_TABLE_SIZE - 1);
+        for (Slot slot = table[index]; slot != null; slot = table[index]) {
+            if (slot.callSiteLine == line && Objects.equals(slot.callSiteFile, file)) {
+                break;
+            }
+            index = (index + 1) & (CALL_SITE_TABLE_SIZE - 1);
+        }
+        return index;
+    }
+
+    /**
+     * @return All token buckets of this rate limiter
+     */
+    private Iterable<Slot> getSlots() {
+        if (!perCallSite) {
+            return Collections.singletonList(sharedSlot);
+        }
+        ArrayList<Slot> result = new ArrayList<Slot>();
+        for (Slot slot : callSiteSlots) {
+            if (slot != null) {
+                result.add(slot);
+            }
+        }
+        result.add(sharedSlot);
+        return result;
+    }
+
+    /**
+     * Outputs summaries for buckets whose messages were suppressed at least SUMMARY_INTERVAL ago
+     *
+     * Called by background thread.
+     *
+     * @param now Current time (obtained from LogFileFlusher.now())
+     * @param all Output summaries for all buckets with suppressed messages (e.g. on shutdown)?
+     * @return Time at which this method needs to be called again (Long.MAX_VALUE if there are no suppressed messages left)
+     */
+    private long reportSuppressed(long now, boolean all) {
+        long due = Long.MAX_VALUE;
+        for (Slot slot : getSlots()) {
+            long suppressed;
+            String file, function, description;
+            int line;
+            LogLevel level;
+            long duration;
+            synchronized (slot) {
+                if (slot.suppressed == 0) {
+                    continue;
+                }
+                if (!all && now - slot.firstSuppressed < SUMMARY_INTERVAL) {
+                    due = Math.min(due, slot.firstSuppressed + SUMMARY_INTERVAL);
+                    continue;
+                }
+                suppressed = slot.suppressed;
+                duration = now - slot.firstSuppressed;
+                file = slot.file;
+                line = slot.line;
+                function = slot.function;
+                description = slot.description;
+                level = slot.level;
+                slot.suppressed = 0;
+                slot.file = null;
+                slot.function = null;
+                slot.description = null;
+            }
+            String location = perCallSite && slot != sharedSlot ? (file + ":" + line) : domain.getName();
+            domain.writeUnlimited(level, file, line, function, description, String.format("suppressed %,d messages from %s in the last %d s", suppressed, location, (duration + 500) / 1000));
+        }
+        return due;
+    }
+
+    /**
+     * @return Whether there are suppressed messages that have not been reported yet
+     */
+    private boolean hasSuppressed() {
+        for (Slot slot : getSlots()) {
+            synchronized (slot) {
+                if (slot.suppressed > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Outputs summaries of all rate limiters that are due
+     *
+     * Called by background thread.
+     *
+     * @param now Current time (obtained from LogFileFlusher.now())
+     * @param all Output summaries for all suppressed messages - also if they are not due yet (e.g. on shutdown)?
+     * @return Time at which this method needs to be called again (Long.MAX_VALUE if there are no suppressed messages left)
+     */
+    static long reportAllSuppressed(long now, boolean all) {
+        LogRateLimiter[] limiters;
+        synchronized (pending) {
+            limiters = pending.toArray(new LogRateLimiter[0]);
+        }
+        long due = Long.MAX_VALUE;
+        for (LogRateLimiter limiter : limiters) {
+            due = Math.min(due, limiter.reportSuppressed(now, all));
+            synchronized (pending) {
+                // messages are counted before limiter is added to pending - so it is not lost if a message is suppressed concurrently
+                if (!limiter.hasSuppressed()) {
+                    pending.remove(limiter);
+                }
+            }
+        }
+        return due;
+    }
+}
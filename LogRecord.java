@@ -0,0 +1,79 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+/**
+ * Preallocated slot for a log message in the asynchronous ring buffer
+ *
+ * Contains everything the writer thread needs to format and output the
+ * message. The message text itself is already formatted by the producer
+ * (as referenced arguments might change after logging).
+ *
+ * @author Max Reichardt
+ */
+class LogRecord {
+
+    /** Sequence number that controls ownership of slot (see LogRingBuffer) */
+    volatile long sequence;
+
+    /** Domain that message was logged to (null if record could not be filled - writer thread skips it) */
+    LogDomain domain;
+
+    /** Snapshot of domain's configuration when message was logged */
+    LogDomainSnapshot snapshot;
+
+    /** Level of message */
+    LogLevel level;
+
+    /** Time when message was logged (obtained from time format in snapshot) */
+    long timestamp;
+
+    /** Location of message in code */
+    String file, function;
+    int line;
+
+    /** Description of calling object or context */
+    String description;
+
+    /** Formatted message text */
+    final LogBuffer message = new LogBuffer(128);
+
+    /** Exception whose stack trace is printed after message (optional) */
+    Throwable exception;
+
+    LogRecord(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Clears all references, so that no objects are kept alive by an unused slot
+     */
+    void clear() {
+        domain = null;
+        snapshot = null;
+        file = null;
+        function = null;
+        description = null;
+        exception = null;
+        message.clear();
+    }
+}
@@ -0,0 +1,81 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+/**
+ * Background thread that outputs summaries of suppressed and repeated messages
+ *
+ * The thread is started when a rate limiter first drops a message - or
+ * when a message is first repeated. It sleeps until the next summary is due.
+ * It also writes flight recorder dumps triggered by error messages.
+ * Summaries are written to the domains' output streams - which may wait
+ * until a file sink has been synced by LogFileFlusher. Therefore, this
+ * is not done by the flusher thread itself.
+ *
+ * @author Max Reichardt
+ */
+class LogReporter implements Runnable {
+
+    /** Reporter thread (null if not started yet) */
+    private static Thread thread;
+
+    /** Has reporter been woken up since it last checked for due summaries? */
+    private static boolean wakeUpRequested;
+
+    /**
+     * Makes reporter check for due summaries immediately (starts reporter if required)
+     */
+    static synchronized void wakeUp() {
+        if (thread == null) {
+            thread = new Thread(new LogReporter(), "RRLib Logging Reporter");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        wakeUpRequested = true;
+        LogReporter.class.notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            long now = LogFileFlusher.now();
+            long due = LogRateLimiter.reportAllSuppressed(now, false);
+            due = Math.min(due, LogMessageCoalescer.reportAllRepeated(now, false));
+            LogFlightRecorder.dumpIfRequested();
+            synchronized (LogReporter.class) {
+                try {
+                    if (!wakeUpRequested) {
+                        long remaining = due - LogFileFlusher.now();
+                        if (due == Long.MAX_VALUE) {
+                            LogReporter.class.wait();
+                        } else if (remaining > 0) {
+                            LogReporter.class.wait(remaining);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                wakeUpRequested = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free multi-producer ring buffer for asynchronous logging
+ *
+ * Logging threads claim one of the preallocated record slots, fill it
+ * and publish it. A dedicated writer thread drains published records
+ * in batches and does formatting and I/O - so that slow streams do not
+ * stall logging threads.
+ *
+ * Ownership of slots is controlled via their sequence numbers:
+ * A slot is free for the producer with sequence number n if its sequence
+ * is n. The producer publishes it by setting its sequence to n + 1.
+ * After processing, the writer sets it to n + capacity - which is the
+ * sequence number of the next producer using it.
+ *
+ * If the buffer is full, producers wait a limited time for the writer to
+ * free slots. If the writer does not make progress (or has terminated),
+ * claiming fails and producers write their messages synchronously.
+ * When the writer terminates after shutdown, it closes the buffer with the
+ * same atomic operation producers use to claim slots - so every claimed
+ * slot is written.
+ *
+ * @author Max Reichardt
+ */
+class LogRingBuffer implements Runnable {
+
+    /** Number of record slots (must be a power of two) */
+    static final int CAPACITY = 8192;
+
+    /** How long the writer thread waits for more records before checking again (in ns) */
+    private static final long WRITER_PARK_NANOS = 10000000;
+
+    /** How long producers wait for a free slot if the buffer is full (in ns) */
+    static final long CLAIM_TIMEOUT_NANOS = 100000000;
+
+    /** Value of claimSequence after writer thread has terminated */
+    private static final long CLOSED = -1;
+
+    /** Preallocated record slots */
+    private final LogRecord[] slots = new LogRecord[CAPACITY];
+
+    /** Sequence number of next slot to claim by producers */
+    private final AtomicLong claimSequence = new AtomicLong();
+
+    /** Writer thread */
+    private final Thread writer;
+
+    /** True while writer thread is parked (producers need to unpark it) */
+    private volatile boolean writerParked;
+
+    /** Set when buffer is shut down - no records are accepted anymore */
+    private volatile boolean shutdown;
+
+    /** Set when a producer timed out waiting for a free slot - cleared when writer makes progress (producers do not wait while it is set) */
+    private volatile boolean writerStalled;
+
+    /** Lazily created single instance */
+    private static volatile LogRingBuffer instance;
+
+    private LogRingBuffer() {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new LogRecord(i);
+        }
+        writer = new Thread(this, "RRLib Logging Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return Ring buffer instance (started on first call)
+     */
+    static LogRingBuffer getInstance() {
+        LogRingBuffer result = instance;
+        if (result == null) {
+            synchronized (LogRingBuffer.class) {
+                result = instance;
+                if (result == null) {
+                    result = new LogRingBuffer();
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Ring buffer instance - or null if it has not been started yet
+     */
+    static LogRingBuffer getInstanceIfStarted() {
+        return instance;
+    }
+
+    /**
+     * @return Whether records are still accepted (false after shutdown or if writer thread has terminated)
+     */
+    boolean isAccepting() {
+        return !shutdown && writer.isAlive();
+    }
+
+    /**
+     * Claims next free record slot
+     *
+     * If the buffer is full, waits until the writer thread has freed a slot -
+     * at most CLAIM_TIMEOUT_NANOS. A claimed slot must be published using
+     * publish().
+     *
+     * @return Claimed slot - or null if the buffer is closed, the writer thread has terminated or does not free slots in time
+     */
+    LogRecord tryClaim() {
+        boolean waiting = false;
+        long deadline = 0;
+        while (true) {
+            long sequence = claimSequence.get();
+            if (sequence == CLOSED) {
+                return null;
+            }
+            LogRecord slot = slots[(int)(sequence & (CAPACITY - 1))];
+            long slotSequence = slot.sequence;
+            if (slotSequence == sequence) {
+                if (claimSequence.compareAndSet(sequence, sequence + 1)) {
+                    return slot;
+                }
+            } else if (slotSequence < sequence) {
+
+                // buffer is full
+                if (writerStalled || !writer.isAlive()) {
+                    return null;
+                }
+                long now = System.nanoTime();
+                if (!waiting) {
+                    waiting = true;
+                    deadline = now + CLAIM_TIMEOUT_NANOS;
+                } else if (now - deadline >= 0) {
+                    writerStalled = true;
+                    return null;
+                }
+                wakeWriter();
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Publishes filled record slot to writer thread
+     *
+     * @param slot Slot obtained from tryClaim()
+     */
+    void publish(LogRecord slot) {
+        slot.sequence = slot.sequence + 1;
+        if (writerParked) {
+            wakeWriter();
+        }
+    }
+
+    /**
+     * Unparks writer thread
+     */
+    private void wakeWriter() {
+        writerParked = false;
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Stops accepting records and waits until writer thread has written all pending records
+     *
+     * @param timeoutMillis Maximum time to wait for writer thread
+     */
+    void shutdown(long timeoutMillis) {
+        shutdown = true;
+        wakeWriter();
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        long sequence = 0;
+        while (true) {
+            LogRecord slot = slots[(int)(sequence & (CAPACITY - 1))];
+            if (slot.sequence == sequence + 1) {
+
+                // drain all published records
+                do {
+                    try {
+                        if (slot.domain != null) {
+                            slot.domain.writeRecord(slot);
+                        }
+                    } catch (Throwable t) {
+                        System.err.println("RRLib Logging >> Writing log record failed: " + t);
+                    }
+                    slot.clear();
+                    slot.sequence = sequence + CAPACITY;
+                    sequence++;
+                    slot = slots[(int)(sequence & (CAPACITY - 1))];
+                } while (slot.sequence == sequence + 1);
+                writerStalled = false;
+
+            } else if (shutdown && claimSequence.compareAndSet(sequence, CLOSED)) {
+                // all claimed records are written - producers can no longer claim slots
+                return;
+            } else {
+                writerParked = true;
+                if (slot.sequence != sequence + 1 && !shutdown) {
+                    LockSupport.parkNanos(this, WRITER_PARK_NANOS);
+                }
+                writerParked = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.PrintStream;
+
+/**
+ * Target that logging domains write rendered messages to
+ *
+ * Sinks can be shared by several domains (e.g. combined files or the
+ * console) - so implementations must be thread-safe.
+ *
+ * @author Max Reichardt
+ */
+abstract class LogSink {
+
+    /**
+     * @return Whether the sink writes messages with control sequences for colored output
+     */
+    boolean isColored() {
+        return false;
+    }
+
+    /**
+     * Write rendered message
+     *
+     * @param level Level of message
+     * @param data Array containing encoded message (including line break)
+     * @param offset Offset of message in array
+     * @param length Length of message in bytes
+     */
+    abstract void write(LogLevel level, byte[] data, int offset, int length);
+
+    /**
+     * Write any buffered data to the underlying stream or file
+     */
+    void flush() {
+    }
+
+    /**
+     * Sink that writes to a PrintStream (used for console output)
+     */
+    static final class PrintStreamSink extends LogSink {
+
+        /** Stream to write to */
+        private final PrintStream stream;
+
+        /** Write control sequences for colored output? */
+        private final boolean colored;
+
+        PrintStreamSink(PrintStream stream, boolean colored) {
+            this.stream = stream;
+            this.colored = colored;
+        }
+
+        @Override
+        boolean isColored() {
+            return colored;
+        }
+
+        @Override
+        void write(LogLevel level, byte[] data, int offset, int length) {
+            stream.write(data, offset, length);
+        }
+
+        @Override
+        void flush() {
+            stream.flush();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PrintStreamSink && ((PrintStreamSink)other).stream == stream;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(stream);
+        }
+    }
+}
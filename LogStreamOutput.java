@@ -32,5 +32,8 @@ public enum LogStreamOutput {
     STDERR,          //!< Messages are printed to stderr
     FILE,            //!< Messages are printed to one file per domain
     COMBINED_FILE,   //!< Messages are collected in one file per recursively configured subtree
+    MAPPED_FILE,     //!< Messages are appended to one memory-mapped file per domain (preserved if JVM crashes)
+    BINARY_FILE,     //!< Messages are written in compact binary format to one file shared by all domains (see LogBinaryDecoder)
+    FLIGHT_RECORDER, //!< Most recent messages of all domains are kept in memory - and dumped to a file on errors or on request
     DIMENSION        //!< Endmarker and dimension of eLogStream
 }
@@ -0,0 +1,130 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The enumeration that encodes the formats that logging domains can use
+ * to print the time of messages.
+ *
+ * Formats are thread-safe. The formats with calendar fields cache the
+ * rendered text up to the current second - so only the milliseconds
+ * need to be appended for most messages.
+ */
+public enum LogTimeFormat {
+    TIME("HH:mm:ss.", ZoneId.systemDefault()),                    //!< Local time of day with milliseconds (e.g. 14:03:52.123)
+    ISO_8601("yyyy-MM-dd'T'HH:mm:ss.", ZoneOffset.UTC),           //!< ISO-8601 date and time in UTC with milliseconds (e.g. 2012-03-05T13:03:52.123Z)
+    EPOCH_MICROS(null, null),                                     //!< Microseconds since 1970-01-01T00:00:00Z
+    MONOTONIC(null, null);                                        //!< Seconds with microseconds since start of logging (not affected by changes of system clock)
+
+    /** Formatter for text up to the current second (null for numeric formats) */
+    private final DateTimeFormatter secondFormatter;
+
+    /** Cached text for one second - replaced whenever a message is logged in a new second */
+    private static final class SecondPrefix {
+
+        /** Epoch second that text was rendered for */
+        final long second;
+
+        /** Rendered text up to (and including) the decimal point (ASCII) */
+        final byte[] text;
+
+        SecondPrefix(long second, byte[] text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
+    /** Text rendered for the most recent second */
+    private volatile SecondPrefix secondPrefix = new SecondPrefix(Long.MIN_VALUE, new byte[0]);
+
+    /** System.nanoTime() when logging started (reference for monotonic format) */
+    static final long START_NANOS = System.nanoTime();
+
+    private LogTimeFormat(String pattern, ZoneId zone) {
+        secondFormatter = pattern == null ? null : DateTimeFormatter.ofPattern(pattern).withZone(zone);
+    }
+
+    /**
+     * Get current timestamp in the unit that this format renders
+     *
+     * @return Current timestamp - epoch milliseconds for calendar formats,
+     *         epoch microseconds for EPOCH_MICROS and System.nanoTime() for MONOTONIC
+     */
+    long now() {
+        switch (this) {
+        case EPOCH_MICROS:
+            Instant now = Instant.now();
+            return now.getEpochSecond() * 1000000 + now.getNano() / 1000;
+        case MONOTONIC:
+            return System.nanoTime();
+        default:
+            return System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Append timestamp to buffer
+     *
+     * @param buffer Buffer to append to
+     * @param timestamp Timestamp obtained via now()
+     */
+    void append(LogBuffer buffer, long timestamp) {
+        append(buffer, timestamp, START_NANOS);
+    }
+
+    /**
+     * Append timestamp to buffer
+     *
+     * @param buffer Buffer to append to
+     * @param timestamp Timestamp obtained via now()
+     * @param startNanos System.nanoTime() when logging started in the process that obtained the timestamp
+     */
+    void append(LogBuffer buffer, long timestamp, long startNanos) {
+        switch (this) {
+        case EPOCH_MICROS:
+            buffer.append(timestamp);
+            break;
+        case MONOTONIC:
+            long micros = (timestamp - startNanos) / 1000;
+            buffer.append(micros / 1000000).append('.');
+            buffer.appendPadded((int)(micros % 1000000), 6);
+            break;
+        default:
+            long second = Math.floorDiv(timestamp, 1000);
+            SecondPrefix prefix = secondPrefix;
+            if (prefix.second != second) {
+                prefix = new SecondPrefix(second, LogBuffer.encode(secondFormatter.format(Instant.ofEpochSecond(second))));
+                secondPrefix = prefix;
+            }
+            buffer.append(prefix.text);
+            buffer.appendPadded(Math.floorMod(timestamp, 1000), 3);
+            if (this == ISO_8601) {
+                buffer.append('Z');
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests that binary log files are rendered like text output (see LogBinaryWriter and LogBinaryDecoder)
+ *
+ * @author Max Reichardt
+ */
+public class LogBinaryTest {
+
+    public static void main(String[] args) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(output, true));
+        try {
+            Path directory = Files.createTempDirectory("binary_test");
+            LogDomainRegistry registry = LogDomainRegistry.getInstance();
+            registry.setOutputFileNamePrefix(directory.resolve("test").toString());
+            registry.beginConfigurationTransaction();
+            registry.setDomainStreamMask("binary_test", LogStreamOutput.STDOUT, LogStreamOutput.BINARY_FILE);
+            registry.setDomainPrintsTime("binary_test", true);
+            registry.commitConfigurationTransaction();
+            LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("binary_test");
+            Path binaryFile = directory.resolve("test" + LogBinaryWriter.FILE_EXTENSION);
+
+            for (int i = 0; i < 10; i++) {
+                domain.log(LogLevel.WARNING, null, "Test", "message " + i, 1);
+            }
+            domain.log(LogLevel.ERROR, null, "Other", new Exception("with stack trace"), 1);
+            check(output.toString().contains("message 9") && output.toString().contains("with stack trace"), "messages must be output");
+            check(decode(binaryFile).equals(output.toString()), "decoded binary log must equal text output");
+            check(countDefinitions(binaryFile) == 1, "domain must be defined once");
+
+            // new snapshot with same output settings must not define domain again
+            registry.setDomainMinMessageLevel("binary_test", LogLevel.DEBUG);
+            domain.log(LogLevel.DEBUG, null, "Test", "after reconfiguration", 1);
+            check(countDefinitions(binaryFile) == 1, "domain with unchanged output settings must not be defined again");
+
+            // changed output settings must define domain again
+            registry.setDomainPrintsLocation("binary_test", false);
+            domain.log(LogLevel.WARNING, null, "Test", "without location", 1);
+            check(countDefinitions(binaryFile) == 2, "domain with changed output settings must be defined again");
+            check(decode(binaryFile).equals(output.toString()), "decoded binary log must equal text output after reconfiguration");
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.println("LogBinaryTest passed");
+    }
+
+    /**
+     * @return Binary log file rendered as text
+     */
+    private static String decode(Path binaryFile) throws Exception {
+        LogFileSink.flushAll();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        new LogBinaryDecoder(new ByteArrayInputStream(Files.readAllBytes(binaryFile))).decode(decoded);
+        return decoded.toString();
+    }
+
+    /**
+     * @return Number of domain definitions in binary log file (domain name is only written there)
+     */
+    private static int countDefinitions(Path binaryFile) throws Exception {
+        LogFileSink.flushAll();
+        String content = new String(Files.readAllBytes(binaryFile), StandardCharsets.ISO_8859_1);
+        int result = 0;
+        for (int index = content.indexOf("binary_test"); index >= 0; index = content.indexOf("binary_test", index + 1)) {
+            result++;
+        }
+        return result;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.util.Optional;
+
+/**
+ * Compares cost of determining the caller's stack frame:
+ * complete Throwable stack trace vs. StackWalker (see Log.getCallFrame)
+ *
+ * The caller is near the top of stacks of different depth - as in typical
+ * applications. A Throwable always materializes the complete stack trace,
+ * while StackWalker stops at the caller.
+ *
+ * Usage: java org.rrlib.logging.LogCallerLookupBenchmark
+ *
+ * @author Max Reichardt
+ */
+public class LogCallerLookupBenchmark {
+
+    private static final int ITERATIONS = 50000;
+
+    /** Sum of looked up line numbers (printed - so that lookups are not optimized away) */
+    private static long sink;
+
+    public static void main(String[] args) {
+        for (int depth : new int[] {10, 50, 200}) {
+            recurse(depth);
+        }
+        System.out.println("LogCallerLookupBenchmark done (" + sink + ")");
+    }
+
+    private static void recurse(int depth) {
+        if (depth > 0) {
+            recurse(depth - 1);
+            return;
+        }
+        // frames of this package are skipped by the lookups - so call them via Optional.map() which is the caller then
+        Optional<Integer> caller = Optional.of(0);
+        StackTraceElement element = caller.map(v -> lookupWithThrowable()).get();
+        StackWalker.StackFrame frame = caller.map(v -> Log.getCallFrame()).get();
+        if (!element.getMethodName().equals(frame.getMethodName()) || element.getLineNumber() != frame.getLineNumber()) {
+            throw new AssertionError("lookups must find the same frame");
+        }
+        int stackDepth = new Throwable().getStackTrace().length;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += caller.map(v -> lookupWithThrowable().getLineNumber()).get();
+            }
+            long throwableTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += caller.map(v -> Log.getCallFrame().getLineNumber()).get();
+            }
+            long walkerTime = System.nanoTime() - start;
+            System.out.printf("stack depth %d, round %d: Throwable %.0f ns/lookup, StackWalker %.0f ns/lookup%n", stackDepth, round, (double)throwableTime / ITERATIONS, (double)walkerTime / ITERATIONS);
+        }
+    }
+
+    /**
+     * @return First stack trace element outside of this package (previous implementation)
+     */
+    private static StackTraceElement lookupWithThrowable() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            if (!element.getClassName().startsWith("org.rrlib.logging.")) {
+                return element;
+            }
+        }
+        return null;
+    }
+}
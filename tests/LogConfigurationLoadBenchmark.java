@@ -0,0 +1,100 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+
+/**
+ * Compares loading a large configuration file with DOM (configureFromXMLNode)
+ * and with the streaming parser (configureFromFile)
+ *
+ * Both variants must produce the same configuration.
+ *
+ * Usage: java org.rrlib.logging.LogConfigurationLoadBenchmark [<number of domain elements>]
+ *
+ * @author Max Reichardt
+ */
+public class LogConfigurationLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int elementCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        for (int round = 0; round < 5; round++) {
+            Path domFile = createFile("load_benchmark_dom" + round, elementCount);
+            Path staxFile = createFile("load_benchmark_stax" + round, elementCount);
+
+            long start = System.nanoTime();
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            Document document = factory.newDocumentBuilder().parse(new File(domFile.toString()));
+            long domParseTime = System.nanoTime() - start;
+            check(registry.configureFromXMLNode(document.getDocumentElement()), "DOM configuration must be applied");
+            long domTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            check(registry.configureFromFile(staxFile.toString()), "StAX configuration must be applied");
+            long staxTime = System.nanoTime() - start;
+
+            for (int i = 0; i < elementCount; i += 97) {
+                LogDomain domDomain = LogDomainRegistry.getDomainByQualifiedName("load_benchmark_dom" + round + ".group" + (i / 100) + ".domain" + i);
+                LogDomain staxDomain = LogDomainRegistry.getDomainByQualifiedName("load_benchmark_stax" + round + ".group" + (i / 100) + ".domain" + i);
+                for (LogLevel level : LogLevel.values()) {
+                    if (level != LogLevel.DIMENSION) {
+                        check(domDomain.isLoggable(level) == staxDomain.isLoggable(level), "both parsers must produce the same configuration");
+                    }
+                }
+                check(domDomain.getPrintLocation() == staxDomain.getPrintLocation(), "both parsers must produce the same configuration");
+            }
+            System.out.printf("round %d with %,d elements (%,d bytes): DOM %.1f ms (parsing %.1f ms), StAX %.1f ms%n", round, elementCount, Files.size(staxFile),
+                              domTime / 1e6, domParseTime / 1e6, staxTime / 1e6);
+            Files.delete(domFile);
+            Files.delete(staxFile);
+        }
+    }
+
+    /**
+     * @return Configuration file with the specified number of domain elements below the specified domain
+     */
+    private static Path createFile(String rootDomain, int elementCount) throws Exception {
+        StringBuilder xml = new StringBuilder("<rrlib_logging>\n");
+        for (int i = 0; i < elementCount; i++) {
+            xml.append("  <domain name=\"").append(rootDomain).append(".group").append(i / 100).append(".domain").append(i).append("\" max_level=\"")
+            .append(LogDomainRegistry.levelNames.get(i % LogDomainRegistry.levelNames.size())).append("\" print_location=\"").append(i % 2 == 0).append("\"/>\n");
+        }
+        xml.append("</rrlib_logging>\n");
+        Path file = Files.createTempFile(rootDomain, ".xml");
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Tests reloading of configuration files (see LogDomainRegistry.configureFromFile(String, boolean))
+ *
+ * @author Max Reichardt
+ */
+public class LogConfigurationReloadTest {
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("reload_test");
+        Path file = directory.resolve("logging.xml");
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        LogDomain first = LogDomainRegistry.getDomainByQualifiedName("reload_test.first");
+        LogDomain second = LogDomainRegistry.getDomainByQualifiedName("reload_test.second");
+
+        write(file, "<rrlib_logging><domain name=\"reload_test.first\" max_level=\"debug_verbose_1\"/><domain name=\"reload_test.second\" enabled=\"false\"/></rrlib_logging>");
+        check(registry.configureFromFile(file.toString(), true), "configuration file must be applied");
+        check(first.isLoggable(LogLevel.DEBUG_VERBOSE_1) && !first.isLoggable(LogLevel.DEBUG_VERBOSE_2), "max level must be applied");
+        check(!second.isLoggable(LogLevel.USER), "disabled domain must not output messages");
+
+        // invalid file: previous configuration must be kept
+        Path invalidFile = directory.resolve("invalid.xml");
+        write(invalidFile, "<rrlib_logging><domain name=\"reload_test.first\" max_level=\"debug_verbose_3\"/><domain");
+        check(!registry.loadConfigurationFile(invalidFile.toString()), "invalid file must not be applied");
+        check(first.isLoggable(LogLevel.DEBUG_VERBOSE_1) && !first.isLoggable(LogLevel.DEBUG_VERBOSE_2), "previous configuration must be kept");
+
+        // modified file is reloaded: settings of domains no longer in the file are reset
+        write(file, "<rrlib_logging><domain name=\"reload_test.first\" max_level=\"debug_verbose_3\"/></rrlib_logging>");
+        long end = System.currentTimeMillis() + 10000;
+        while (!first.isLoggable(LogLevel.DEBUG_VERBOSE_3)) {
+            check(System.currentTimeMillis() < end, "modified file must be reloaded");
+            Thread.sleep(20);
+        }
+        check(second.isLoggable(LogLevel.USER), "settings of domains no longer in file must be reset");
+        System.out.println("LogConfigurationReloadTest passed");
+    }
+
+    /**
+     * Writes file in one step (via temporary file)
+     */
+    private static void write(Path file, String content) throws Exception {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tempFile, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests configuration transactions (see LogDomainRegistry.beginConfigurationTransaction)
+ *
+ * @author Max Reichardt
+ */
+public class LogConfigurationTransactionTest {
+
+    public static void main(String[] args) throws Exception {
+        testChangesArePublishedOnCommit();
+        testConfigurationFileIsAppliedInTransaction();
+        testDomainCreationWaitsForTransaction();
+        System.out.println("LogConfigurationTransactionTest passed");
+    }
+
+    /** Changes must be published when outermost transaction is committed - also to sub domains that are configured by their parent */
+    private static void testChangesArePublishedOnCommit() {
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("transaction_test");
+        LogDomain child = LogDomainRegistry.getDomainByQualifiedName("transaction_test.child");
+        check(!domain.isLoggable(LogLevel.DEBUG_VERBOSE_1), "verbose messages must be disabled by default");
+
+        registry.beginConfigurationTransaction();
+        registry.setDomainConfiguresSubTree("transaction_test", true);
+        registry.setDomainMinMessageLevel("transaction_test", LogLevel.DEBUG_VERBOSE_1);
+        registry.beginConfigurationTransaction();
+        registry.setDomainConfiguresSubTree("transaction_nested_test", true);
+        registry.setDomainIsEnabled("transaction_nested_test", false);
+        registry.commitConfigurationTransaction();
+        check(!domain.isLoggable(LogLevel.DEBUG_VERBOSE_1), "changes must not be published before outermost commit");
+        registry.commitConfigurationTransaction();
+
+        check(domain.isLoggable(LogLevel.DEBUG_VERBOSE_1), "changes must be published on commit");
+        check(child.isLoggable(LogLevel.DEBUG_VERBOSE_1), "changes must be inherited by sub domains");
+        check(!LogDomainRegistry.getDomainByQualifiedName("transaction_nested_test").isLoggable(LogLevel.USER), "changes of nested transaction must be published");
+        check(!LogDomainRegistry.getDomainByQualifiedName("transaction_nested_test.child").isLoggable(LogLevel.USER), "domains created later must inherit committed settings");
+    }
+
+    /** All settings of a configuration file must be applied */
+    private static void testConfigurationFileIsAppliedInTransaction() throws Exception {
+        Path file = Files.createTempFile("transaction_test", ".xml");
+        StringBuilder xml = new StringBuilder("<rrlib_logging>\n");
+        for (int i = 0; i < 100; i++) {
+            xml.append("  <domain name=\"transaction_file_test.domain").append(i).append("\" max_level=\"debug_verbose_").append(i % 3 + 1).append("\" print_location=\"false\"/>\n");
+        }
+        xml.append("</rrlib_logging>\n");
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+        check(LogDomainRegistry.getInstance().configureFromFile(file.toString()), "configuration file must be applied");
+        for (int i = 0; i < 100; i++) {
+            LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("transaction_file_test.domain" + i);
+            LogLevel maxLevel = LogLevel.values()[LogLevel.DEBUG_VERBOSE_1.ordinal() + i % 3];
+            check(domain.isLoggable(maxLevel), "max level of domain " + i + " must be applied");
+            check(maxLevel == LogLevel.DEBUG_VERBOSE_3 || !domain.isLoggable(LogLevel.values()[maxLevel.ordinal() + 1]), "max level of domain " + i + " must be applied exactly");
+            check(!domain.getPrintLocation(), "all attributes of domain " + i + " must be applied");
+        }
+    }
+
+    /** Domains created by other threads during a transaction must not copy partially applied configurations */
+    private static void testDomainCreationWaitsForTransaction() throws Exception {
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        LogDomain[] created = new LogDomain[1];
+        Thread creator = new Thread(() -> created[0] = LogDomainRegistry.getDomainByQualifiedName("transaction_wait_test.child"));
+        creator.setDaemon(true);
+        registry.beginConfigurationTransaction();
+        try {
+            registry.setDomainMinMessageLevel("transaction_wait_test.*", LogLevel.DEBUG_VERBOSE_2);
+            creator.start();
+            creator.join(200);
+            check(creator.isAlive(), "domain creation must wait for open transaction");
+            registry.setDomainPrintsLocation("transaction_wait_test.*", false);
+        } finally {
+            registry.commitConfigurationTransaction();
+        }
+        creator.join(5000);
+        check(!creator.isAlive(), "domain creation must continue after commit");
+        check(created[0].isLoggable(LogLevel.DEBUG_VERBOSE_2) && !created[0].getPrintLocation(), "created domain must have all settings of transaction");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
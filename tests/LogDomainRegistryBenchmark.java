@@ -0,0 +1,74 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+/**
+ * Measures domain creation, lookup and configuration with many domains
+ * (see name index in LogDomainRegistry)
+ *
+ * Usage: java org.rrlib.logging.LogDomainRegistryBenchmark [<number of domains>]
+ *
+ * @author Max Reichardt
+ */
+public class LogDomainRegistryBenchmark {
+
+    public static void main(String[] args) {
+        int domainCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        for (int round = 0; round < 3; round++) {
+            String prefix = "registry_benchmark" + round;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < domainCount; i++) {
+                LogDomainRegistry.getDomainByQualifiedName(getName(prefix, i));
+            }
+            long createTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < domainCount; i++) {
+                if (LogDomainRegistry.getDomainByQualifiedName(getName(prefix, i)) == null) {
+                    throw new AssertionError("domain must exist");
+                }
+            }
+            long lookupTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < domainCount; i++) {
+                registry.setDomainMinMessageLevel(getName(prefix, i), LogLevel.DEBUG_VERBOSE_1);
+            }
+            long setterTime = System.nanoTime() - start;
+
+            if (!LogDomainRegistry.getDomainByQualifiedName(getName(prefix, domainCount - 1)).isLoggable(LogLevel.DEBUG_VERBOSE_1)) {
+                throw new AssertionError("setting must be applied");
+            }
+            System.out.printf("round %d with %,d domains: create %.2f us/domain, lookup %.2f us/domain, setter %.2f us/call%n", round, domainCount,
+                              createTime / 1000.0 / domainCount, lookupTime / 1000.0 / domainCount, setterTime / 1000.0 / domainCount);
+        }
+    }
+
+    /**
+     * @return Name of i-th domain (100 domains per parent)
+     */
+    private static String getName(String prefix, int i) {
+        return prefix + ".group" + (i / 100) + ".domain" + i;
+    }
+}
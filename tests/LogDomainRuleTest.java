@@ -0,0 +1,80 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests rules for domain names with patterns (see LogDomainRegistry.isRulePattern)
+ *
+ * @author Max Reichardt
+ */
+public class LogDomainRuleTest {
+
+    public static void main(String[] args) throws Exception {
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        LogDomain aPlanner = LogDomainRegistry.getDomainByQualifiedName("rule_test.a.planner");
+        LogDomain bPlanner = LogDomainRegistry.getDomainByQualifiedName("rule_test.b.planner");
+        LogDomain bIo = LogDomainRegistry.getDomainByQualifiedName("rule_test.b.io");
+        LogDomain longIo = LogDomainRegistry.getDomainByQualifiedName("rule_test.long.io");
+
+        // '*' rule applies to existing and new domains
+        registry.setDomainMinMessageLevel("rule_test.*.planner", LogLevel.DEBUG_VERBOSE_2);
+        check(aPlanner.isLoggable(LogLevel.DEBUG_VERBOSE_2) && bPlanner.isLoggable(LogLevel.DEBUG_VERBOSE_2), "rule must apply to existing matching domains");
+        check(!bIo.isLoggable(LogLevel.DEBUG_VERBOSE_2), "rule must not apply to other domains");
+        check(LogDomainRegistry.getDomainByQualifiedName("rule_test.c.planner").isLoggable(LogLevel.DEBUG_VERBOSE_2), "rule must apply to domains created later");
+        check(LogDomainRegistry.getDomainByQualifiedName("rule_test.c.d.planner").isLoggable(LogLevel.DEBUG_VERBOSE_2), "'*' must match several name segments");
+
+        // '?' matches exactly one character
+        registry.setDomainIsEnabled("rule_test.?.io", false);
+        check(!bIo.isLoggable(LogLevel.USER), "'?' must match single character");
+        check(longIo.isLoggable(LogLevel.USER), "'?' must not match several characters");
+
+        // explicit settings take precedence over rules
+        registry.setDomainMinMessageLevel("rule_test.a.planner", LogLevel.WARNING);
+        check(!aPlanner.isLoggable(LogLevel.DEBUG), "explicit setting must take precedence over rule");
+        registry.setDomainMinMessageLevel("rule_test.a.*", LogLevel.DEBUG_VERBOSE_3);
+        check(!aPlanner.isLoggable(LogLevel.DEBUG), "explicit setting must take precedence over rule created later");
+
+        // rules created later take precedence over earlier rules
+        registry.setDomainMinMessageLevel("rule_test.*", LogLevel.DEBUG);
+        check(bPlanner.isLoggable(LogLevel.DEBUG) && !bPlanner.isLoggable(LogLevel.DEBUG_VERBOSE_1), "later rule must take precedence");
+        check(!bIo.isLoggable(LogLevel.USER), "settings not made by later rule must be kept");
+
+        // rules in configuration files
+        Path file = Files.createTempFile("rule_test", ".xml");
+        Files.write(file, "<rrlib_logging><domain name=\"rule_file_test.*.io\" max_level=\"debug_verbose_3\"/></rrlib_logging>".getBytes(StandardCharsets.UTF_8));
+        LogDomain fileIo = LogDomainRegistry.getDomainByQualifiedName("rule_file_test.x.io");
+        check(registry.configureFromFile(file.toString()), "configuration file must be applied");
+        check(fileIo.isLoggable(LogLevel.DEBUG_VERBOSE_3), "rule from file must apply to existing domains");
+        check(LogDomainRegistry.getDomainByQualifiedName("rule_file_test.y.io").isLoggable(LogLevel.DEBUG_VERBOSE_3), "rule from file must apply to new domains");
+        System.out.println("LogDomainRuleTest passed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests rollover of log files and archiving of segments (see LogFileSink and LogFileArchiver)
+ *
+ * @author Max Reichardt
+ */
+public class LogFileArchiverTest {
+
+    public static void main(String[] args) throws Exception {
+        testRetentionOrdersSegmentsNumerically();
+        testRolloverKeepsNewestSegments();
+        System.out.println("LogFileArchiverTest passed");
+    }
+
+    /** Segments rotated in the same millisecond must be ordered by their counter (-10 is newer than -2) */
+    private static void testRetentionOrdersSegmentsNumerically() throws Exception {
+        Path directory = Files.createTempDirectory("archiver_test");
+        Path logFile = directory.resolve("test.log");
+        for (int i = 0; i <= 11; i++) {
+            Files.write(directory.resolve("test.log.20260101-000000-000" + (i > 0 ? "-" + i : "") + ".gz"), new byte[0]);
+        }
+        Files.write(directory.resolve("test.log.20251231-235959-999.gz"), new byte[0]);
+        Path segment = directory.resolve("test.log.20260101-000000-000-12");
+        Files.write(segment, "segment".getBytes(StandardCharsets.UTF_8));
+        LogFileArchiver.archive(segment, logFile, 3, 0);
+        check(waitForSegments(directory, 3), "expected three segments - found " + getSegments(directory));
+        check(getSegments(directory).equals(new TreeSet<String>(Arrays.asList("test.log.20260101-000000-000-10.gz", "test.log.20260101-000000-000-11.gz", "test.log.20260101-000000-000-12.gz"))),
+              "newest segments must be kept - found " + getSegments(directory));
+    }
+
+    /** Rollover must keep a contiguous tail of messages */
+    private static void testRolloverKeepsNewestSegments() throws Exception {
+        Path directory = Files.createTempDirectory("rollover_test");
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        registry.setOutputFileNamePrefix(directory.resolve("test").toString());
+        registry.beginConfigurationTransaction();
+        registry.setDomainStreamMask("rollover_test", LogStreamOutput.FILE);
+        registry.setDomainRolloverSize("rollover_test", 300);
+        registry.setDomainRolloverRetention("rollover_test", 3, 0);
+        registry.commitConfigurationTransaction();
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("rollover_test");
+        for (int i = 0; i < 100; i++) {
+            domain.log(LogLevel.WARNING, null, "Test", "message " + i + ";", 1);
+        }
+        LogFileSink.flushAll();
+        check(waitForSegments(directory, 3), "expected three segments - found " + getSegments(directory));
+
+        StringBuilder text = new StringBuilder();
+        for (String segment : getSegments(directory)) {
+            text.append(decompress(directory.resolve(segment)));
+        }
+        text.append(new String(Files.readAllBytes(directory.resolve("testrollover_test.log")), StandardCharsets.UTF_8));
+        int first = 0;
+        while (!text.toString().contains("message " + first + ";")) {
+            first++;
+        }
+        check(first > 0, "old segments must be removed");
+        for (int i = first; i < 100; i++) {
+            check(text.toString().contains("message " + i + ";"), "message " + i + " is missing - newest segments must be kept");
+        }
+    }
+
+    /**
+     * @return Whether directory contains the specified number of compressed segments (and no uncompressed ones) within 5 s
+     */
+    private static boolean waitForSegments(Path directory, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (getSegments(directory).size() != count || hasUncompressedSegments(directory)) {
+            if (System.currentTimeMillis() > end) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * @return Names of compressed segments in directory (sorted by name - so also from oldest to newest in this test)
+     */
+    private static TreeSet<String> getSegments(Path directory) {
+        TreeSet<String> result = new TreeSet<String>((a, b) -> a.length() != b.length() ? a.length() - b.length() : a.compareTo(b));
+        for (File file : directory.toFile().listFiles()) {
+            if (file.getName().endsWith(".gz")) {
+                result.add(file.getName());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Whether directory contains segments that are not compressed yet
+     */
+    private static boolean hasUncompressedSegments(Path directory) {
+        for (File file : directory.toFile().listFiles()) {
+            if (!file.getName().endsWith(".gz") && !file.getName().endsWith(".log")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Content of compressed segment
+     */
+    private static String decompress(Path segment) throws Exception {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(segment))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toString(StandardCharsets.UTF_8.name());
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures throughput of FILE output on one thread
+ *
+ * All print flags are enabled. The caller's stack frame is passed in, so
+ * no stack walk is included.
+ *
+ * Usage: java org.rrlib.logging.LogFileOutputBenchmark
+ *
+ * @author Max Reichardt
+ */
+public class LogFileOutputBenchmark {
+
+    private static final int MESSAGES = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("file_output_benchmark");
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        registry.setOutputFileNamePrefix(directory.resolve("benchmark").toString());
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("file_output_benchmark");
+        registry.setDomainStreamMask("file_output_benchmark", LogStreamOutput.FILE);
+        registry.setDomainPrintsTime("file_output_benchmark", true);
+        registry.setDomainPrintsName("file_output_benchmark", true);
+        registry.setDomainPrintsLevel("file_output_benchmark", true);
+        registry.setDomainPrintsLocation("file_output_benchmark", true);
+        StackTraceElement callFrame = new StackTraceElement("Benchmark", "run", "Benchmark.java", 42);
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                domain.log(LogLevel.DEBUG, callFrame, "Benchmark", "benchmark message", 0);
+            }
+            long time = System.nanoTime() - start;
+            System.out.printf("round %d: %.2f million messages/s%n", round, MESSAGES * 1000.0 / time);
+        }
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        directory.toFile().delete();
+    }
+}
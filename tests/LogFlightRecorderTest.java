@@ -0,0 +1,98 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Tests flight recorder (see LogFlightRecorder)
+ *
+ * @author Max Reichardt
+ */
+public class LogFlightRecorderTest {
+
+    public static void main(String[] args) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(output, true));
+        try {
+            Path directory = Files.createTempDirectory("flight_recorder_test");
+            LogDomainRegistry registry = LogDomainRegistry.getInstance();
+            registry.setOutputFileNamePrefix(directory.resolve("test").toString());
+            registry.beginConfigurationTransaction();
+            registry.setDomainStreamMask("flight_recorder_test", LogStreamOutput.STDOUT, LogStreamOutput.FLIGHT_RECORDER);
+            registry.setDomainFlightRecorderLevel("flight_recorder_test", LogLevel.DEBUG_VERBOSE_3);
+            registry.commitConfigurationTransaction();
+            registry.setFlightRecorderSize(2048, 10);
+
+            testRequestedDump(output, registry);
+            testDumpOnError(directory);
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.println("LogFlightRecorderTest passed");
+    }
+
+    /** Dump must contain the most recent messages - also if they wrapped around the end of the buffer */
+    private static void testRequestedDump(ByteArrayOutputStream output, LogDomainRegistry registry) throws Exception {
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("flight_recorder_test");
+        for (int i = 0; i < 20; i++) {
+            domain.log(LogLevel.DEBUG_VERBOSE_1, null, "Test", "recorded message " + i, 1);
+        }
+        check(!output.toString().contains("recorded message"), "messages above domain's max level must only be recorded");
+        String fileName = registry.dumpFlightRecorder();
+        check(fileName != null, "dump must be written");
+        String text = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+        check(text.contains("(requested) - 10 messages"), "dump must contain ten messages");
+        check(text.indexOf("recorded message 10") < text.indexOf("recorded message 19"), "messages must be dumped oldest first");
+        check(!text.contains("recorded message 9"), "oldest messages must be discarded");
+    }
+
+    /** Error message must trigger dump by background thread */
+    private static void testDumpOnError(Path directory) throws Exception {
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("flight_recorder_test");
+        domain.log(LogLevel.ERROR, null, "Test", "error message", 1);
+        long end = System.currentTimeMillis() + 5000;
+        while (true) {
+            for (File file : directory.toFile().listFiles()) {
+                String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                if (text.contains("(error message)") && text.contains("error message\n")) {
+                    return;
+                }
+            }
+            check(System.currentTimeMillis() < end, "error message must trigger dump");
+            Thread.sleep(10);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Compares cost of level checks in a hot loop: isLoggable vs. guard from getLevelGuard
+ *
+ * Also checks that the guard follows changes of the domain's max level.
+ *
+ * Usage: java org.rrlib.logging.LogLevelGuardBenchmark
+ *
+ * @author Max Reichardt
+ */
+public class LogLevelGuardBenchmark {
+
+    private static final LogDomain DOMAIN = LogDomainRegistry.getDomainByQualifiedName("level_guard_benchmark");
+    private static final MethodHandle VERBOSE = DOMAIN.getLevelGuard(LogLevel.DEBUG_VERBOSE_1);
+
+    private static final int ITERATIONS = 100000000;
+
+    /** Sum of loop results (printed at the end) */
+    private static long sink;
+
+    public static void main(String[] args) throws Throwable {
+        check(!(boolean)VERBOSE.invokeExact(), "guard must be false for disabled level");
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            sink += loopIsLoggable();
+            long isLoggableTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            sink += loopGuard();
+            long guardTime = System.nanoTime() - start;
+            System.out.printf("round %d: isLoggable %.3f ns/check, guard %.3f ns/check%n", round, (double)isLoggableTime / ITERATIONS, (double)guardTime / ITERATIONS);
+        }
+
+        LogDomainRegistry.getInstance().setDomainMinMessageLevel("level_guard_benchmark", LogLevel.DEBUG_VERBOSE_3);
+        check((boolean)VERBOSE.invokeExact(), "guard must be true after level was raised");
+        check(loopGuard() == ITERATIONS, "compiled loop must see raised level");
+        LogDomainRegistry.getInstance().setDomainIsEnabled("level_guard_benchmark", false);
+        check(!(boolean)VERBOSE.invokeExact(), "guard must be false for disabled domain");
+        System.out.println("LogLevelGuardBenchmark passed (" + sink + ")");
+    }
+
+    private static long loopIsLoggable() {
+        long count = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (DOMAIN.isLoggable(LogLevel.DEBUG_VERBOSE_1)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long loopGuard() throws Throwable {
+        long count = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if ((boolean)VERBOSE.invokeExact()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures heap allocation per console message with all print flags enabled
+ *
+ * Messages go to a discarding stdout stream - so only formatting and
+ * rendering are measured. The caller's stack frame is passed in, so no
+ * stack walk is included.
+ *
+ * Usage: java org.rrlib.logging.LogMessageAllocationBenchmark
+ *
+ * @author Max Reichardt
+ */
+public class LogMessageAllocationBenchmark {
+
+    private static final int MESSAGES = 1000000;
+
+    public static void main(String[] args) {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("allocation_benchmark");
+        registry.setDomainPrintsTime("allocation_benchmark", true);
+        registry.setDomainPrintsName("allocation_benchmark", true);
+        registry.setDomainPrintsLevel("allocation_benchmark", true);
+        registry.setDomainPrintsLocation("allocation_benchmark", true);
+        StackTraceElement callFrame = new StackTraceElement("Benchmark", "run", "Benchmark.java", 42);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < 5; round++) {
+            long allocated = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                domain.log(LogLevel.WARNING, callFrame, "Benchmark", "benchmark message", 0);
+            }
+            long time = System.nanoTime() - start;
+            allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+            stdout.printf("round %d: %.0f bytes/message, %.0f ns/message%n", round, (double)allocated / MESSAGES, (double)time / MESSAGES);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests coalescing of repeated messages (see LogMessageCoalescer)
+ *
+ * @author Max Reichardt
+ */
+public class LogMessageCoalescerTest {
+
+    public static void main(String[] args) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(output, true));
+        try {
+            testDifferentMessageReportsRepetitions(output);
+            testTimeoutReportsRepetitions(output);
+            testTimeoutWithSyncedFile();
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.println("LogMessageCoalescerTest passed");
+    }
+
+    /** A different message must report the repetitions of the previous one */
+    private static void testDifferentMessageReportsRepetitions(ByteArrayOutputStream output) {
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("coalescer_test.different");
+        LogDomainRegistry.getInstance().setDomainCoalescesRepeatedMessages("coalescer_test.different", 60000);
+        for (int i = 0; i < 10; i++) {
+            domain.log(LogLevel.WARNING, null, "Test", "repeated message", 1);
+        }
+        domain.log(LogLevel.WARNING, null, "Test", "different message", 1);
+        String text = output.toString();
+        check(text.indexOf("repeated message") == text.lastIndexOf("repeated message"), "repeated message must be output once");
+        int summary = text.indexOf("last message repeated 9 times");
+        check(summary >= 0 && summary < text.indexOf("different message"), "repetitions must be reported before different message");
+    }
+
+    /** Repetitions must be reported by background thread after timeout */
+    private static void testTimeoutReportsRepetitions(ByteArrayOutputStream output) throws InterruptedException {
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("coalescer_test.timeout");
+        LogDomainRegistry.getInstance().setDomainCoalescesRepeatedMessages("coalescer_test.timeout", 100);
+        for (int i = 0; i < 4; i++) {
+            domain.log(LogLevel.WARNING, null, "Test", "message with timeout", 1);
+        }
+        check(waitFor(output, "last message repeated 3 times", 5000), "repetitions must be reported after timeout");
+    }
+
+    /** Reporting repetitions must not block file sinks that wait for a sync (regression test for deadlock) */
+    private static void testTimeoutWithSyncedFile() throws Exception {
+        Path directory = Files.createTempDirectory("coalescer_test");
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        registry.setOutputFileNamePrefix(directory.resolve("test").toString());
+        registry.beginConfigurationTransaction();
+        registry.setDomainStreamMask("coalescer_test.synced", LogStreamOutput.FILE);
+        registry.setDomainFileFlushLevel("coalescer_test.synced", LogLevel.WARNING);
+        registry.setDomainFileSyncLatency("coalescer_test.synced", 1);
+        registry.setDomainCoalescesRepeatedMessages("coalescer_test.synced", 1);
+        registry.commitConfigurationTransaction();
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("coalescer_test.synced");
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                domain.log(LogLevel.WARNING, null, "Test", "synced message " + (i / 10), 1);
+            }
+        });
+        thread.start();
+        thread.join(20000);
+        check(!thread.isAlive(), "logging thread must not hang");
+        Thread.sleep(200);
+        String text = new String(Files.readAllBytes(directory.resolve("testcoalescer_test.synced.log")), StandardCharsets.UTF_8);
+        check(text.contains("synced message 19"), "messages must be written to file");
+        check(text.contains("last message repeated"), "repetitions must be written to file");
+    }
+
+    /**
+     * @return Whether text appeared in output within timeout (in ms)
+     */
+    private static boolean waitFor(ByteArrayOutputStream output, String text, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (!output.toString().contains(text)) {
+            if (System.currentTimeMillis() > end) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
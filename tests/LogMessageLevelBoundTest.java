@@ -0,0 +1,87 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+/**
+ * Tests the upper bound of max message levels that static Log methods check before looking up the caller (see LogDomainRegistry.maxMessageLevelBound)
+ *
+ * @author Max Reichardt
+ */
+public class LogMessageLevelBoundTest {
+
+    public static void main(String[] args) throws Exception {
+        testBoundIsLoweredAfterRevert();
+        testBoundIsLoweredAfterTransaction();
+        testDisabledDomainsDoNotRaiseBound();
+        System.out.println("LogMessageLevelBoundTest passed");
+    }
+
+    /** A temporary verbose setting must not keep the bound raised */
+    private static void testBoundIsLoweredAfterRevert() {
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("bound_test");
+        check(LogDomainRegistry.maxMessageLevelBound == LogLevel.DEBUG.ordinal(), "bound must be default max level initially");
+
+        registry.setDomainMinMessageLevel("bound_test", LogLevel.DEBUG_VERBOSE_3);
+        check(LogDomainRegistry.maxMessageLevelBound == LogLevel.DEBUG_VERBOSE_3.ordinal(), "bound must be raised by verbose domain");
+        check(domain.isLoggable(LogLevel.DEBUG_VERBOSE_3), "verbose setting must be published");
+
+        registry.setDomainMinMessageLevel("bound_test", LogLevel.DEBUG);
+        check(LogDomainRegistry.maxMessageLevelBound == LogLevel.DEBUG.ordinal(), "bound must be lowered when verbose setting is reverted");
+    }
+
+    /** Bound must be lowered when a transaction (e.g. a reloaded configuration file) removes verbose settings of rules */
+    private static void testBoundIsLoweredAfterTransaction() {
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("bound_rule_test.child");
+        registry.beginConfigurationTransaction();
+        registry.setDomainMinMessageLevel("bound_rule_test.*", LogLevel.DEBUG_VERBOSE_2);
+        registry.setDomainFlightRecorderLevel("bound_test", LogLevel.DEBUG_VERBOSE_1);
+        registry.commitConfigurationTransaction();
+        check(LogDomainRegistry.maxMessageLevelBound == LogLevel.DEBUG_VERBOSE_2.ordinal(), "bound must be raised by rule");
+        check(domain.isLoggable(LogLevel.DEBUG_VERBOSE_2), "rule must be applied");
+
+        registry.beginConfigurationTransaction();
+        registry.setDomainMinMessageLevel("bound_rule_test.*", LogLevel.DEBUG);
+        registry.commitConfigurationTransaction();
+        check(LogDomainRegistry.maxMessageLevelBound == LogLevel.DEBUG_VERBOSE_1.ordinal(), "bound must be lowered to remaining flight recorder level");
+
+        registry.setDomainFlightRecorderLevel("bound_test", null);
+        check(LogDomainRegistry.maxMessageLevelBound == LogLevel.DEBUG.ordinal(), "bound must be lowered to default max level");
+    }
+
+    /** Only enabled domains may raise the bound */
+    private static void testDisabledDomainsDoNotRaiseBound() {
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        registry.setDomainMinMessageLevel("bound_test", LogLevel.DEBUG_VERBOSE_3);
+        registry.setDomainIsEnabled("bound_test", false);
+        check(LogDomainRegistry.maxMessageLevelBound == LogLevel.DEBUG.ordinal(), "disabled domain must not raise bound");
+        registry.setDomainIsEnabled("bound_test", true);
+        check(LogDomainRegistry.maxMessageLevelBound == LogLevel.DEBUG_VERBOSE_3.ordinal(), "enabled domain must raise bound");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests messages with placeholders (see LogDomain.logPattern)
+ *
+ * @author Max Reichardt
+ */
+public class LogPatternTest {
+
+    public static void main(String[] args) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(output, true));
+        try {
+            testIntArgumentWithoutOrigin(output);
+            testPlaceholders(output);
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.println("LogPatternTest passed");
+    }
+
+    /** A pattern with null origin and an int as last argument must be formatted - not taken as message with caller stack index */
+    private static void testIntArgumentWithoutOrigin(ByteArrayOutputStream output) throws InterruptedException {
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("pattern_test");
+        int intVar = 42;
+        Thread thread = new Thread(() -> domain.logPattern(LogLevel.WARNING, null, "x {} {}", "a", intVar));
+        thread.start();
+        thread.join();
+        check(output.toString().contains("x a 42"), "pattern must be formatted: " + output);
+
+        domain.log(LogLevel.WARNING, null, "Test", "message with stack index", 1);
+        check(output.toString().contains("message with stack index"), "variant with caller stack index must still be available");
+    }
+
+    /** Surplus placeholders are output as they are - fixed-arity and varargs variants format alike */
+    private static void testPlaceholders(ByteArrayOutputStream output) throws InterruptedException {
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("pattern_test");
+        Thread thread = new Thread(() -> {
+            domain.logPattern(LogLevel.WARNING, "Test", "one {} {}", 1);
+            domain.logPattern(LogLevel.WARNING, "Test", "three {} {} {}", 1, 2, 3);
+            domain.logPattern(LogLevel.WARNING, "Test", "four {} {} {} {}", 1, 2, 3, 4);
+            domain.logPattern(LogLevel.DEBUG_VERBOSE_3, "Test", "filtered {}", 1);
+        });
+        thread.start();
+        thread.join();
+        String text = output.toString();
+        check(text.contains("one 1 {}"), "surplus placeholders must be output");
+        check(text.contains("three 1 2 3"), "fixed-arity variant must format all arguments");
+        check(text.contains("four 1 2 3 4"), "varargs variant must format all arguments");
+        check(!text.contains("filtered"), "filtered message must not be output");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests rate limiting of messages (see LogRateLimiter)
+ *
+ * @author Max Reichardt
+ */
+public class LogRateLimiterTest {
+
+    public static void main(String[] args) throws InterruptedException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(output, true));
+        try {
+            testCallSitesHaveSeparateBuckets();
+            testSupplierOnlyCalledForOutputMessages(output);
+            testSummaries(output);
+            testMaxCallSites();
+            testDroppingDoesNotAllocate();
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.println("LogRateLimiterTest passed");
+    }
+
+    /** Every call site must have its own bucket - regardless of hash collisions */
+    private static void testCallSitesHaveSeparateBuckets() {
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("rate_limiter_test.buckets");
+        LogRateLimiter limiter = new LogRateLimiter(domain, 0.001, 1, LogLevel.WARNING, true);
+        for (int line = 0; line < 500; line++) {
+            check(limiter.acquire(LogLevel.WARNING, "Test.java", line, "test", "Test"), "first message of line " + line + " must be output");
+        }
+        for (int line = 0; line < 500; line++) {
+            check(!limiter.acquire(LogLevel.WARNING, "Test.java", line, "test", "Test"), "second message of line " + line + " must be dropped");
+        }
+        check(limiter.acquire(LogLevel.ERROR, "Test.java", 0, "test", "Test"), "messages above limited level must never be dropped");
+    }
+
+    /** Supplier of dropped messages must not be called */
+    private static void testSupplierOnlyCalledForOutputMessages(ByteArrayOutputStream output) throws InterruptedException {
+        LogDomainRegistry.getInstance().setDomainRateLimit(LogRateLimiterTest.class.getPackage().getName(), 0.001, 3);
+        AtomicInteger calls = new AtomicInteger();
+
+        // Log skips call frames of this package - so log from a thread whose run() method is outside
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                Log.log(LogLevel.WARNING, () -> "supplied message " + calls.incrementAndGet());
+            }
+        });
+        thread.start();
+        thread.join();
+        check(calls.get() == 3, "supplier must only be called for output messages - was called " + calls.get() + " times");
+        check(output.toString().contains("supplied message 3") && !output.toString().contains("supplied message 4"), "first three messages must be output");
+    }
+
+    /** Suppressed messages must be reported per call site */
+    private static void testSummaries(ByteArrayOutputStream output) {
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("rate_limiter_test.summaries");
+        LogDomainRegistry.getInstance().setDomainRateLimit("rate_limiter_test.summaries", 0.001, 2);
+        for (int i = 0; i < 50; i++) {
+            domain.log(LogLevel.WARNING, null, "Test", "first call site " + i, 1);
+            domain.log(LogLevel.WARNING, null, "Test", "second call site " + i, 1);
+        }
+        String text = output.toString();
+        check(text.contains("first call site 1") && !text.contains("first call site 2"), "first call site must output two messages");
+        check(text.contains("second call site 1") && !text.contains("second call site 2"), "second call site must output two messages");
+        LogRateLimiter.reportAllSuppressed(LogFileFlusher.now(), true);
+        text = output.toString();
+        int summaries = 0;
+        for (int index = text.indexOf("suppressed 48 messages from LogRateLimiterTest.java:"); index >= 0; index = text.indexOf("suppressed 48 messages from LogRateLimiterTest.java:", index + 1)) {
+            summaries++;
+        }
+        check(summaries == 2, "expected one summary per call site - found " + summaries);
+    }
+
+    /** Call sites exceeding MAX_CALL_SITES share one bucket */
+    private static void testMaxCallSites() {
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("rate_limiter_test.max_call_sites");
+        LogRateLimiter limiter = new LogRateLimiter(domain, 0.001, 1, LogLevel.WARNING, true);
+        for (int line = 0; line < LogRateLimiter.MAX_CALL_SITES; line++) {
+            check(limiter.acquire(LogLevel.WARNING, "Test.java", line, "test", "Test"), "first message of line " + line + " must be output");
+        }
+        check(limiter.acquire(LogLevel.WARNING, "Other.java", 1, "test", "Test"), "first call site beyond limit must be output");
+        check(!limiter.acquire(LogLevel.WARNING, "Other.java", 2, "test", "Test"), "call sites beyond limit must share one bucket");
+    }
+
+    /** Looking up the bucket of a call site must not create objects */
+    private static void testDroppingDoesNotAllocate() {
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("rate_limiter_test.allocation");
+        LogRateLimiter limiter = new LogRateLimiter(domain, 0.001, 1, LogLevel.WARNING, true);
+        String file = "Test.java";
+        for (int line = 0; line < 100; line++) {
+            limiter.acquire(LogLevel.WARNING, file, line, "test", "Test");
+            limiter.acquire(LogLevel.WARNING, file, line, "test", "Test");
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            limiter.acquire(LogLevel.WARNING, file, i % 100, "test", "Test");
+        }
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        check(allocated < 100000, "dropping 100000 messages allocated " + allocated + " bytes");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests asynchronous output via the ring buffer (see LogRingBuffer)
+ *
+ * @author Max Reichardt
+ */
+public class LogRingBufferTest {
+
+    public static void main(String[] args) throws Exception {
+        PrintStream stdout = System.out;
+        try {
+            testStalledWriterDoesNotBlockLogging();
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.println("LogRingBufferTest passed");
+    }
+
+    /** If the writer thread is stalled and the ring is full, logging threads must write synchronously instead of waiting forever */
+    private static void testStalledWriterDoesNotBlockLogging() throws Exception {
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        CountDownLatch setUp = new CountDownLatch(1);
+        CountDownLatch writerEntered = new CountDownLatch(1);
+        CountDownLatch releaseWriter = new CountDownLatch(1);
+        AtomicBoolean stall = new AtomicBoolean();
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[] {(byte)b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (!stall.get()) {
+                    setUp.countDown();
+                    return;
+                }
+                writerEntered.countDown();
+                try {
+                    releaseWriter.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, true));
+        LogDomain stalledDomain = LogDomainRegistry.getDomainByQualifiedName("ring_buffer_test_stalled");
+        registry.setDomainOutputsAsynchronously("ring_buffer_test_stalled", true);
+        stalledDomain.log(LogLevel.WARNING, null, "Test", "set up message", 1);
+        check(setUp.await(5, TimeUnit.SECONDS), "writer thread must write set up message");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true));
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("ring_buffer_test");
+        registry.setDomainOutputsAsynchronously("ring_buffer_test", true);
+
+        // stall writer thread
+        stall.set(true);
+        stalledDomain.log(LogLevel.WARNING, null, "Test", "stalling message", 1);
+        check(writerEntered.await(5, TimeUnit.SECONDS), "writer thread must write stalling message");
+
+        // fill ring
+        int messageCount = LogRingBuffer.CAPACITY + 100;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < messageCount; i++) {
+                domain.log(LogLevel.WARNING, null, "Test", "ring message", 1);
+            }
+        });
+        producer.setDaemon(true);
+        producer.start();
+        producer.join(30000);
+        check(!producer.isAlive(), "logging thread must not wait for stalled writer");
+        check(countMessages(output) >= 100, "messages that do not fit into ring must be written synchronously");
+
+        // records in ring must be written when writer continues
+        releaseWriter.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (countMessages(output) < messageCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        check(countMessages(output) == messageCount, "all messages must be written");
+    }
+
+    /**
+     * @return Number of "ring message" occurrences in output
+     */
+    private static int countMessages(ByteArrayOutputStream output) {
+        String text = output.toString();
+        int count = 0;
+        for (int index = text.indexOf("ring message"); index >= 0; index = text.indexOf("ring message", index + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
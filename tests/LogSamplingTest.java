@@ -0,0 +1,102 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests every-Nth and probabilistic sampling of messages
+ *
+ * @author Max Reichardt
+ */
+public class LogSamplingTest {
+
+    public static void main(String[] args) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(output, true));
+        try {
+            testEveryNthWithConcurrentThreads(output);
+            testProbability(output);
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.println("LogSamplingTest passed");
+    }
+
+    /** Exactly every Nth message must be kept - also if several threads log concurrently */
+    private static void testEveryNthWithConcurrentThreads(ByteArrayOutputStream output) throws InterruptedException {
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        registry.setDomainMinMessageLevel("sampling_test.nth", LogLevel.DEBUG_VERBOSE_3);
+        registry.setDomainSamplesEveryNth("sampling_test.nth", LogLevel.DEBUG, 10);
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("sampling_test.nth");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    domain.log(LogLevel.DEBUG, null, "Test", "every nth message", 1);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < 5; i++) {
+            domain.log(LogLevel.WARNING, null, "Test", "unsampled message", 1);
+        }
+        check(count(output, "every nth message") == 4000, "expected 4000 kept messages - got " + count(output, "every nth message"));
+        check(count(output, "unsampled message") == 5, "messages of other levels must not be sampled");
+    }
+
+    /** Probabilistic sampling must keep approximately the configured fraction */
+    private static void testProbability(ByteArrayOutputStream output) {
+        LogDomainRegistry registry = LogDomainRegistry.getInstance();
+        registry.setDomainMinMessageLevel("sampling_test.probability", LogLevel.DEBUG_VERBOSE_3);
+        registry.setDomainSamplingProbability("sampling_test.probability", LogLevel.DEBUG_VERBOSE_1, 0.25);
+        LogDomain domain = LogDomainRegistry.getDomainByQualifiedName("sampling_test.probability");
+        for (int i = 0; i < 20000; i++) {
+            domain.log(LogLevel.DEBUG_VERBOSE_1, null, "Test", "probable message", 1);
+        }
+        int kept = count(output, "probable message");
+        check(kept > 4500 && kept < 5500, "expected about 5000 kept messages - got " + kept);
+    }
+
+    /**
+     * @return Number of occurrences of text in output
+     */
+    private static int count(ByteArrayOutputStream output, String text) {
+        String string = output.toString();
+        int result = 0;
+        for (int index = string.indexOf(text); index >= 0; index = string.indexOf(text, index + 1)) {
+            result++;
+        }
+        return result;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}